@@ -0,0 +1,24 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 店铺布隆过滤器配置，修改后需要重建过滤器
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "bloom.shop")
+public class BloomFilterProperties {
+
+    /**
+     * 预计插入的元素数量
+     */
+    private long expectedInsertions = 100000;
+
+    /**
+     * 期望的误判率
+     */
+    private double fpp = 0.01;
+}
@@ -0,0 +1,47 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 全局id生成配置，所有节点必须使用相同的策略
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "id")
+public class IdWorkerProperties {
+
+    public enum Strategy {
+        /**
+         * 从redis领取号段
+         */
+        SEGMENT,
+        /**
+         * 本地生成，只在启动时从redis租用worker id
+         */
+        SNOWFLAKE
+    }
+
+    public enum ClockRollback {
+        /**
+         * 等待时钟追上
+         */
+        WAIT,
+        /**
+         * 直接失败
+         */
+        FAIL
+    }
+
+    private Strategy strategy = Strategy.SEGMENT;
+
+    private ClockRollback clockRollback = ClockRollback.WAIT;
+
+    /**
+     * 回拨超过该时间时直接失败
+     */
+    private Duration maxRollbackWait = Duration.ofMillis(10);
+}
@@ -0,0 +1,66 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.RedisBloomFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+@Configuration
+public class RedisConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        // 订阅redis频道，用于各节点之间广播缓存失效等消息
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    @Bean
+    public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory connectionFactory) {
+        // 值为原始字节的模板，用于缓存的自定义编解码
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.setHashKeySerializer(RedisSerializer.string());
+        template.setHashValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    @Bean
+    public ReactiveRedisTemplate<String, byte[]> reactiveByteRedisTemplate(ReactiveRedisConnectionFactory connectionFactory) {
+        // 基于lettuce异步连接的模板，用于非阻塞的缓存读取
+        RedisSerializationContext<String, byte[]> context = RedisSerializationContext
+                .<String, byte[]>newSerializationContext(RedisSerializer.string())
+                .value(RedisSerializationContext.SerializationPair.byteArray())
+                .build();
+        return new ReactiveRedisTemplate<>(connectionFactory, context);
+    }
+
+    @Bean
+    public RedisBloomFilter shopBloomFilter(StringRedisTemplate stringRedisTemplate,
+                                            RedisMessageListenerContainer redisMessageListenerContainer,
+                                            BloomFilterProperties bloomFilterProperties) {
+        // 店铺id布隆过滤器，防止缓存穿透
+        RedisBloomFilter filter = new RedisBloomFilter(BLOOM_SHOP_KEY, bloomFilterProperties.getExpectedInsertions(),
+                bloomFilterProperties.getFpp(), stringRedisTemplate);
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> filter.onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(filter.getChannel()));
+        return filter;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 秒杀订单消费者配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "seckill.order")
+public class SeckillOrderProperties {
+
+    /**
+     * 每批最多处理的订单数
+     */
+    private int batchSize = 100;
+
+    /**
+     * 读到第一条消息后，为凑满一批最多再等待的时间，为0时读到多少处理多少
+     */
+    private Duration maxLinger = Duration.ofMillis(50);
+
+    /**
+     * 订单stream的分区数，按用户id取模，所有节点必须一致
+     */
+    private int partitions = 4;
+
+    /**
+     * 每个节点的消费线程数
+     */
+    private int consumerThreads = 2;
+
+    /**
+     * 最大投递次数，超过后移入死信stream
+     */
+    private int maxDeliveries = 8;
+
+    /**
+     * 重试间隔，按投递次数指数增长
+     */
+    private Duration retryBackoff = Duration.ofSeconds(5);
+
+    /**
+     * 最大重试间隔
+     */
+    private Duration maxRetryBackoff = Duration.ofMinutes(5);
+}
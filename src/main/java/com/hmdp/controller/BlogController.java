@@ -1,19 +1,27 @@
 package com.hmdp.controller;
 
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 
 /**
  * <p>
@@ -31,6 +39,8 @@ public class BlogController {
     private IBlogService blogService;
     @Resource
     private IUserService userService;
+    @Resource
+    private CacheClient cacheClient;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -71,12 +81,17 @@ public class BlogController {
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
+        // 批量查询用户
+        Set<Long> userIds = records.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = cacheClient.getMany(CACHE_USER_KEY, userIds, UserDTO.class,
+                ids -> BeanUtil.copyToList(userService.listByIds(ids), UserDTO.class),
+                UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES);
         records.forEach(blog ->{
-            Long userId = blog.getUserId();
-            User user = userService.getById(userId);
-            blog.setName(user.getNickName());
-            blog.setIcon(user.getIcon());
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
         });
         return Result.ok(records);
     }
@@ -3,13 +3,22 @@ package com.hmdp.controller;
 
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.CachedResponse;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -26,14 +35,46 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private ObjectMapper objectMapper;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryById(id);
+    public DeferredResult<ResponseEntity<byte[]>> queryShopById(
+            @PathVariable("id") Long id,
+            @RequestHeader HttpHeaders headers) {
+        // 异步查询，等待redis响应期间释放请求线程
+        // 直接返回缓存中序列化好的响应体，客户端缓存未过期时返回304
+        List<String> ifNoneMatch = headers.getIfNoneMatch();
+        DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<>();
+        shopService.queryResponseById(id).whenComplete((response, e) -> {
+            if (e != null) {
+                result.setErrorResult(e);
+            } else if (response == null) {
+                result.setResult(json(Result.fail("商铺不存在")));
+            } else if (response.matches(ifNoneMatch)) {
+                result.setResult(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(response.getEtag()).build());
+            } else {
+                result.setResult(ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .contentLength(response.getBody().length)
+                        .eTag(response.getEtag())
+                        .body(response.getBody()));
+            }
+        });
+        return result;
+    }
+
+    private ResponseEntity<byte[]> json(Result body) {
+        try {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(objectMapper.writeValueAsBytes(body));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -43,10 +84,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，并加入布隆过滤器
+        return shopService.saveShop(shop);
     }
 
     /**
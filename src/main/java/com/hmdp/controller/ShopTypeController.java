@@ -1,15 +1,16 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
-import com.hmdp.entity.ShopType;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -26,7 +27,15 @@ public class ShopTypeController {
     private IShopTypeService typeService;
 
     @GetMapping("list")
-    public Result queryTypeList() {
-        return typeService.queryList();
+    public ResponseEntity<byte[]> queryTypeList(WebRequest request) {
+        // 直接返回快照中序列化好的响应体，客户端缓存未过期时返回304
+        ShopTypeSnapshot snapshot = typeService.querySnapshot();
+        if (request.checkNotModified(snapshot.getEtag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(snapshot.getEtag())
+                .body(snapshot.getBody());
     }
 }
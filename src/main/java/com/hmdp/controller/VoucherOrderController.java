@@ -6,10 +6,13 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.IVoucherService;
 import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -33,5 +36,15 @@ public class VoucherOrderController {
         return voucherOrderService.seckillVoucher(voucherId);
     }
 
+    /**
+     * 查询秒杀订单状态：queued、persisted、failed
+     * @param wait 长轮询，订单排队中时最多等待的秒数
+     */
+    @GetMapping("status/{id}")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "wait", defaultValue = "0") Long wait) {
+        return voucherOrderService.queryOrderStatus(orderId, wait);
+    }
+
 
 }
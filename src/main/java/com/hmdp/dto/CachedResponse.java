@@ -0,0 +1,78 @@
+package com.hmdp.dto;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 序列化好的响应体及其ETag，直接写入响应，不再经过JSON解析和序列化
+ * 写入redis时ETag保存在响应体之前：魔数(1字节) + ETag长度(1字节) + ETag + 响应体，命中时不重新计算
+ */
+@Getter
+public class CachedResponse {
+
+    private static final byte MAGIC = (byte) 0xE7;
+
+    private final byte[] body;
+
+    private final String etag;
+
+    private CachedResponse(byte[] body, String etag) {
+        this.body = body;
+        this.etag = etag;
+    }
+
+    /**
+     * 根据响应体计算ETag
+     */
+    public static CachedResponse of(byte[] body) {
+        return new CachedResponse(body, "\"" + DigestUtil.md5Hex(body).substring(0, 16) + "\"");
+    }
+
+    /**
+     * @return 写入redis的字节，包含ETag和响应体
+     */
+    public byte[] encode() {
+        byte[] tag = etag.getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = new byte[2 + tag.length + body.length];
+        bytes[0] = MAGIC;
+        bytes[1] = (byte) tag.length;
+        System.arraycopy(tag, 0, bytes, 2, tag.length);
+        System.arraycopy(body, 0, bytes, 2 + tag.length, body.length);
+        return bytes;
+    }
+
+    /**
+     * 按If-None-Match的规则判断客户端缓存是否有效，与ServletWebRequest.checkNotModified一致：
+     * 列表中任意一个ETag按弱比较(忽略W/前缀)相同，或为*时有效
+     * @param ifNoneMatch HttpHeaders.getIfNoneMatch解析出的ETag列表
+     */
+    public boolean matches(List<String> ifNoneMatch) {
+        String tag = stripWeak(etag);
+        for (String candidate : ifNoneMatch) {
+            if ("*".equals(candidate) || tag.equals(stripWeak(candidate))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * 读取encode写入的字节，没有保存ETag的旧数据按原始响应体处理并重新计算ETag
+     */
+    public static CachedResponse decode(byte[] bytes) {
+        if (bytes.length < 2 || bytes[0] != MAGIC || 2 + (bytes[1] & 0xFF) > bytes.length) {
+            return of(bytes);
+        }
+        int tagLength = bytes[1] & 0xFF;
+        String etag = new String(bytes, 2, tagLength, StandardCharsets.US_ASCII);
+        return new CachedResponse(Arrays.copyOfRange(bytes, 2 + tagLength, bytes.length), etag);
+    }
+}
@@ -0,0 +1,35 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 店铺类型的不可变快照，包含排好序的列表和序列化好的响应体
+ */
+@Getter
+public class ShopTypeSnapshot {
+
+    /**
+     * redis中的版本号，版本号变化时重新加载
+     */
+    private final long version;
+
+    private final List<ShopType> types;
+
+    /**
+     * Result的JSON字节，直接写入响应
+     */
+    private final byte[] body;
+
+    private final String etag;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body, String etag) {
+        this.version = version;
+        this.types = Collections.unmodifiableList(types);
+        this.body = body;
+        this.etag = etag;
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.dto;
+
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 秒杀券元数据的不可变快照，秒杀请求在本地判断时间窗口
+ */
+@Getter
+public class VoucherMeta {
+
+    private final Long voucherId;
+
+    private final Long shopId;
+
+    /**
+     * 加载时数据库中的库存，数据库库存只会随订单落库减少，为0时一定已售罄
+     */
+    private final int stock;
+
+    private final LocalDateTime beginTime;
+
+    private final LocalDateTime endTime;
+
+    /**
+     * 开始、结束时间的毫秒时间戳，与redis TIME的口径一致
+     */
+    private final long beginMillis;
+
+    private final long endMillis;
+
+    public VoucherMeta(Long voucherId, Long shopId, int stock, LocalDateTime beginTime, LocalDateTime endTime) {
+        this.voucherId = voucherId;
+        this.shopId = shopId;
+        this.stock = stock;
+        this.beginTime = beginTime;
+        this.endTime = endTime;
+        this.beginMillis = beginTime == null ? Long.MIN_VALUE : beginTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        this.endMillis = endTime == null ? Long.MAX_VALUE : endTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public boolean notStarted(long now) {
+        return now < beginMillis;
+    }
+
+    public boolean ended(long now) {
+        return now >= endMillis;
+    }
+}
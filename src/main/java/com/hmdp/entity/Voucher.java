@@ -90,6 +90,18 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 库存分片数，不传时根据库存数量计算
+     */
+    @TableField(exist = false)
+    private Integer shards;
+
+    /**
+     * 已购买用户的记录方式：set、bitmap，不传时为set
+     */
+    @TableField(exist = false)
+    private String purchasers;
+
     /**
      * 创建时间
      */
@@ -0,0 +1,24 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.CacheOutbox;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ * 缓存失效事件表 服务类
+ * </p>
+ */
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 在当前事务中记录缓存失效事件，事务提交后删除缓存，并在一段时间后再删除一次
+     * @param keys 要删除的缓存key
+     */
+    void record(String... keys);
+
+    /**
+     * 批量处理到期的失效事件
+     * @return 本次删除的缓存key数量
+     */
+    int relay();
+}
@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.CachedResponse;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +19,11 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    CompletableFuture<CachedResponse> queryResponseById(Long id);
+
+    Result saveShop(Shop shop);
+
+    Result rebuildBloomFilter();
+
     Result updateShop(Shop shop);
 }
@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
 
 /**
  * <p>
@@ -17,4 +20,15 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
     void createVoucherOrder(VoucherOrder order);
+
+    /**
+     * 批量创建订单，过滤重复订单，按券合并扣减库存
+     */
+    void createVoucherOrders(List<VoucherOrder> orders);
+
+    /**
+     * 查询秒杀订单状态，不访问数据库
+     * @param wait 订单排队中时最多等待的秒数，状态变化后立即返回
+     */
+    DeferredResult<Result> queryOrderStatus(Long orderId, long wait);
 }
@@ -16,5 +16,14 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
-    void addSeckillVoucher(Voucher voucher);
+    /**
+     * @return 优惠券id，参数不合法时返回失败
+     */
+    Result addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 秒杀券改为用位图记录已购买用户，并迁移已有的用户
+     * @return 迁移的用户数
+     */
+    long migratePurchasersToBitmap(Long voucherId);
 }
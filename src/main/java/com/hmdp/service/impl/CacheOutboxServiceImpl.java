@@ -0,0 +1,128 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ * 缓存失效事件表 服务实现类
+ * 业务数据与失效事件在同一个事务中写入，事务提交后再删除缓存，
+ * 避免事务提交前其他线程把旧数据重新写入缓存；删除失败时按退避时间重试
+ * </p>
+ */
+@Slf4j
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    private static final int STATUS_PENDING = 0;
+    private static final int STATUS_FAILED = 1;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    private static final ExecutorService RELAY_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void record(String... keys) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime delayed = now.plus(CACHE_OUTBOX_DELAY_DELETE, ChronoUnit.MILLIS);
+        List<CacheOutbox> events = new ArrayList<>(keys.length * 2);
+        for (String key : keys) {
+            // 1.事务提交后立即删除
+            events.add(new CacheOutbox().setCacheKey(key).setStatus(STATUS_PENDING).setRetryCount(0).setNextTime(now));
+            // 2.延迟双删，清除提交前后并发读取写回的旧数据
+            events.add(new CacheOutbox().setCacheKey(key).setStatus(STATUS_PENDING).setRetryCount(0).setNextTime(delayed));
+        }
+        saveBatch(events);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 事务提交后立即触发一次，不必等待定时任务
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    RELAY_EXECUTOR.submit(() -> relay());
+                }
+            });
+        } else {
+            RELAY_EXECUTOR.submit(() -> relay());
+        }
+    }
+
+    @Override
+    @Scheduled(fixedDelay = 500)
+    public synchronized int relay() {
+        int total = 0;
+        List<CacheOutbox> events;
+        do {
+            // 1.查询到期的失效事件
+            events = query()
+                    .eq("status", STATUS_PENDING)
+                    .le("next_time", LocalDateTime.now())
+                    .orderByAsc("id")
+                    .last("limit " + CACHE_OUTBOX_BATCH_SIZE)
+                    .list();
+            if (events.isEmpty()) {
+                break;
+            }
+            // 2.一次批量删除，同一个key只删除一次
+            Set<String> keys = events.stream().map(CacheOutbox::getCacheKey)
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            try {
+                cacheClient.delete(keys);
+            } catch (RuntimeException e) {
+                log.error("缓存删除失败，稍后重试, keys: {}", keys, e);
+                retryLater(events);
+                break;
+            }
+            // 3.删除成功，移除事件
+            removeByIds(events.stream().map(CacheOutbox::getId).collect(Collectors.toList()));
+            total += keys.size();
+        } while (events.size() == CACHE_OUTBOX_BATCH_SIZE);
+        return total;
+    }
+
+    private void retryLater(List<CacheOutbox> events) {
+        LocalDateTime now = LocalDateTime.now();
+        for (CacheOutbox event : events) {
+            int retryCount = event.getRetryCount() + 1;
+            CacheOutbox update = new CacheOutbox().setId(event.getId()).setRetryCount(retryCount);
+            if (retryCount >= CACHE_OUTBOX_MAX_RETRIES) {
+                // 重试次数耗尽，保留记录等待人工处理，缓存最终由TTL兜底
+                log.error("缓存删除重试次数耗尽, key: {}", event.getCacheKey());
+                update.setStatus(STATUS_FAILED);
+            } else {
+                // 指数退避
+                long backoff = Math.min(1L << retryCount, CACHE_OUTBOX_MAX_BACKOFF);
+                update.setNextTime(now.plusSeconds(backoff));
+            }
+            updateById(update);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        RELAY_EXECUTOR.shutdown();
+    }
+}
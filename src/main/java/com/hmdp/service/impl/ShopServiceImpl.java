@@ -1,28 +1,30 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.CachedResponse;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AsyncCacheClient;
+import com.hmdp.utils.BinaryCacheCodec;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RandomTTL;
-import com.hmdp.utils.RedisData;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.TtlPolicy;
+import com.hmdp.utils.RedisBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
-import java.time.LocalDateTime;
-
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -35,197 +37,135 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private CacheClient cacheClient;
 
     @Resource
-    private CacheClient cacheClient;
+    private AsyncCacheClient asyncCacheClient;
+
+    @Resource
+    private TtlPolicy ttlPolicy;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(5);
+    @Resource
+    private RedisBloomFilter shopBloomFilter;
+
+    @PostConstruct
+    private void init() {
+        // 热点店铺数据开启本地缓存
+        cacheClient.enableLocalCache(CACHE_SHOP_KEY, CACHE_SHOP_LOCAL_SIZE, CACHE_SHOP_LOCAL_TTL, TimeUnit.SECONDS);
+        cacheClient.enableLocalCache(CACHE_SHOP_RESP_KEY, CACHE_SHOP_LOCAL_SIZE, CACHE_SHOP_RESP_LOCAL_TTL, TimeUnit.SECONDS);
+        // 店铺数据使用二进制编码，减少序列化开销
+        cacheClient.registerCodec(CACHE_SHOP_KEY, BinaryCacheCodec.INSTANCE);
+        // 加载布隆过滤器，redis中不存在时根据数据库中的店铺id初始化
+        if (!shopBloomFilter.load()) {
+            rebuildBloomFilter();
+        }
+    }
 
     @Override
     public Result queryById(Long id) {
         // 缓存穿透
-        /*Shop shop = cacheClient
-                .getWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.SECONDS);
+        /*Shop shop = cacheClient.getWithPassThrough(CACHE_SHOP_KEY, id, Shop.class,
+                this::getById, CACHE_SHOP_TTL, TimeUnit.SECONDS, shopBloomFilter);
         if (BeanUtil.isEmpty(shop)) {
             return Result.fail("商铺不存在");
         }*/
 
+        // 布隆过滤器判断店铺一定不存在，直接返回
+        if (!shopBloomFilter.mightContain(id)) {
+            return Result.fail("商铺不存在");
+        }
         // 缓存击穿
         Shop shop = cacheClient.getWithLogicExpire(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class,
-                this::getById, 5L, TimeUnit.SECONDS);
+                this::getById, CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
         if (BeanUtil.isEmpty(shop)) {
             return Result.fail("商铺不存在");
         }
         return Result.ok(shop);
     }
 
-    public Shop queryWithLogicExpire(Long id) {
-        // 缓存击穿 使用逻辑过期时间
-        // 1. 从redis中查询缓存
-        String key = CACHE_SHOP_KEY + id;
-
-        String dataJson = stringRedisTemplate.opsForValue().get(key);
-        // 2. 判断是否命中
-        if (StrUtil.isBlank(dataJson)) {
-            // 未命中 返回null
-            return null;
-        }
-
-        // 命中
-        // 3. 判断是否逻辑过期
-        // 获取数据
-        RedisData redisData = JSONUtil.toBean(dataJson, RedisData.class);
-
-        LocalDateTime expireTime = redisData.getExpireTime();
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-
-        // 没有逻辑过期 返回数据
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            return shop;
-        }
-        // 逻辑过期，修改缓存 返回过期数据
-
-        // 获取互斥锁，开启独立线程
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 是否获取成功
-        if (isLock) {
-            // 获取成功，创建线程，重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    this.saveShopToRedis(id, 20L);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unlock(lockKey);
-                }
-            });
-        }
-
-        // 获取失败，返回旧数据
-        return shop;
-    }
-
-    public Shop queryWithMutex(Long id) {
-        // 缓存击穿 互斥锁
-        // 1. 从redis中查询缓存
-        String key = CACHE_SHOP_KEY + id;
-
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2. 判断是否命中
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 命中 返回数据
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        // 判断是否为空字符串
-        if (shopJson != null) {
-            return null;
+    @Override
+    public CompletableFuture<CachedResponse> queryResponseById(Long id) {
+        // 布隆过滤器判断店铺一定不存在，直接返回
+        if (!shopBloomFilter.mightContain(id)) {
+            return CompletableFuture.completedFuture(null);
         }
-
-        // 没有命中 缓存重建
-        String lockKey = LOCK_SHOP_KEY + id;
-        Shop shop;
-        try {
-            // 1.获取互斥锁
-            boolean isLock = tryLock(lockKey);
-            if (!isLock) {
-                // 获取失败 休眠，重新调用
-                Thread.sleep(100);
-                return queryWithMutex(id);
-            }
-
-            // 2. 获取成功，再次判断缓存是否重建成功
-            //  从redis中查询缓存
-            shopJson = stringRedisTemplate.opsForValue().get(key);
-            //  判断是否命中
-            if (StrUtil.isNotBlank(shopJson)) {
-                // 命中 返回数据
-                return JSONUtil.toBean(shopJson, Shop.class);
-            }
-
-            // 判断是否为空字符串
-            if (shopJson != null) {
-                return null;
-            }
-
-            // 缓存没有重建成功，从数据库中查询数据
-            shop = getById(id);
-            // 模拟重建延时
-            Thread.sleep(200);
-            // 判断数据是否存在
+        // 缓存序列化好的响应体，未命中时从店铺缓存读取并序列化一次
+        // 响应体由店铺缓存派生，存活时间不超过店铺缓存的逻辑过期时间，店铺数据变化后最多延迟这段时间
+        return asyncCacheClient.getResponseAsync(CACHE_SHOP_RESP_KEY + id, () -> {
+            Shop shop = cacheClient.getWithLogicExpire(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class,
+                    this::getById, CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
             if (BeanUtil.isEmpty(shop)) {
-                // 不存在 返回错误,并将空值写入redis，防止缓存穿透
-                stringRedisTemplate.opsForValue().set(key, "", RandomTTL.getTTL(CACHE_NULL_TTL), TimeUnit.MINUTES);
                 return null;
             }
+            try {
+                return objectMapper.writeValueAsBytes(Result.ok(shop));
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
+            }
+        }, CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
+    }
 
-            // 存在
-            // 3.将数据写入redis中
-            shopJson = JSONUtil.toJsonStr(shop);
-            stringRedisTemplate.opsForValue().set(key, shopJson, RandomTTL.getTTL(CACHE_SHOP_TTL), TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 4.释放互斥锁
-            unlock(lockKey);
-        }
+    public Shop queryWithLogicExpire(Long id) {
+        // 缓存击穿 使用逻辑过期时间
+        return cacheClient.getWithLogicExpire(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class,
+                this::getById, 20L, TimeUnit.SECONDS);
+    }
 
-        // 5. 返回数据
-        return shop;
+    public Shop queryWithMutex(Long id) {
+        // 缓存击穿 互斥锁，并发未命中由CacheClient合并为一次加载
+        return cacheClient.getWithMutex(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class,
+                this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     public Shop queryWithPassThrough(Long id) {
         // 缓存穿透解决方案
-        // 1. 从redis中查询缓存
-        String key = CACHE_SHOP_KEY + id;
-
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2. 判断是否命中
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 命中 返回数据
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
+        return cacheClient.getWithPassThrough(CACHE_SHOP_KEY, id, Shop.class,
+                this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
 
-        // 判断是否为空字符串
-        if (shopJson != null) {
-            return null;
-        }
 
-        // 没有命中
-        // 1.从数据库中查询数据
+    public void saveShopToRedis(Long id, Long expireSeconds) {
+        // 设置逻辑过期时间 缓存击穿解决方案
         Shop shop = getById(id);
-        // 2.判断数据是否存在
-        if (BeanUtil.isEmpty(shop)) {
-            // 不存在 返回错误,并将空值写入redis，防止缓存穿透
-            stringRedisTemplate.opsForValue().set(key, "", RandomTTL.getTTL(CACHE_NULL_TTL), TimeUnit.MINUTES);
-            return null;
-        }
-
-        // 存在
-        // 3.将数据写入redis中
-        shopJson = JSONUtil.toJsonStr(shop);
-        stringRedisTemplate.opsForValue().set(key, shopJson, RandomTTL.getTTL(CACHE_SHOP_TTL), TimeUnit.MINUTES);
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
+    }
 
-        // 4. 返回数据
-        return shop;
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器
+        shopBloomFilter.put(shop.getId());
+        // 返回店铺id
+        return Result.ok(shop.getId());
     }
 
+    @Override
+    public Result rebuildBloomFilter() {
+        // 查询所有店铺id，重建布隆过滤器
+        int count = shopBloomFilter.rebuild(
+                () -> listObjs(new QueryWrapper<Shop>().select("id"), id -> ((Number) id).longValue()));
+        log.debug("店铺布隆过滤器重建完成，共{}条", count);
+        return Result.ok(count);
+    }
 
-    public void saveShopToRedis(Long id, Long expireSeconds) throws InterruptedException {
-        // 设置逻辑过期时间 缓存击穿解决方案
-        Shop shop = getById(id);
-        RedisData redisData = new RedisData();
-        Thread.sleep(200);
-        redisData.setData(shop);
-        // 设置逻辑过期时间
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        // 写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+    /**
+     * 定时从redis重新加载布隆过滤器，补上丢失的同步消息
+     */
+    @Scheduled(initialDelay = 60000, fixedRate = 60000)
+    public void syncBloomFilter() {
+        shopBloomFilter.load();
     }
 
     @Override
@@ -241,20 +181,14 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 1.更新数据库
         updateById(shop);
 
-        // 2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        // 2.在同一个事务中记录缓存失效事件，事务提交后由中继删除缓存并通知其他节点
+        cacheOutboxService.record(CACHE_SHOP_KEY + shop.getId(), CACHE_SHOP_RESP_KEY + shop.getId());
+        // 频繁更新的店铺缩短缓存时间
+        ttlPolicy.recordUpdate(CACHE_SHOP_KEY + shop.getId());
+        ttlPolicy.recordUpdate(CACHE_SHOP_RESP_KEY + shop.getId());
 
         return Result.ok(shop);
     }
 
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
-    }
-
 }
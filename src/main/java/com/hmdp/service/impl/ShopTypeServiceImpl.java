@@ -2,13 +2,21 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.collection.ListUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.TtlPolicy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
@@ -16,6 +24,7 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -27,18 +36,98 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    /**
+     * 指标中的缓存前缀，与CacheClient按key统计时的口径一致
+     */
+    private static final String METRICS_PREFIX = CacheMetrics.prefixOf(CACHE_SHOP_TYPE_KEY);
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private TtlPolicy ttlPolicy;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    /**
+     * 当前的店铺类型快照，版本号变化时整体替换
+     */
+    private volatile ShopTypeSnapshot snapshot;
+
     @Override
     public Result queryList() {
+        return Result.ok(querySnapshot().getTypes());
+    }
+
+    @Override
+    public ShopTypeSnapshot querySnapshot() {
+        // 直接返回本地快照，不访问redis
+        ShopTypeSnapshot current = snapshot;
+        if (current == null) {
+            current = reload(currentVersion());
+        }
+        cacheMetrics.recordGet(METRICS_PREFIX, CacheMetrics.L1_HIT);
+        return current;
+    }
+
+    @Override
+    public Result refresh() {
+        // 删除缓存并升级版本号，各节点检查到新版本后重新加载
+        stringRedisTemplate.delete(CACHE_SHOP_TYPE_KEY);
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+        return Result.ok(reload(version == null ? 0 : version).getVersion());
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    public void checkVersion() {
+        ShopTypeSnapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        long version = currentVersion();
+        if (version != current.getVersion()) {
+            log.debug("店铺类型版本变化 {} -> {}，重新加载", current.getVersion(), version);
+            reload(version);
+        }
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0 : Long.parseLong(version);
+    }
+
+    private synchronized ShopTypeSnapshot reload(long version) {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && current.getVersion() == version) {
+            return current;
+        }
+        // 排序和序列化只在加载时做一次
+        List<ShopType> types = loadList();
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        String etag = "\"" + version + "-" + DigestUtil.md5Hex(body).substring(0, 16) + "\"";
+        snapshot = new ShopTypeSnapshot(version, types, body, etag);
+        return snapshot;
+    }
+
+    private List<ShopType> loadList() {
         List<ShopType> shopTypeList = null;
 
         // 1.从redis中获取数据
-        String shopTypesByRe = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
+        String shopTypesByRe = cacheMetrics.redisTimer("get", METRICS_PREFIX)
+                .record(() -> stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY));
 
         // 2.判断数据是否正确
         if (StrUtil.isNotBlank(shopTypesByRe)) {
@@ -47,17 +136,23 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
 
         if (shopTypeList != null && shopTypeList.size() == SHOP_TYPE_COUNT) {
             shopTypeList.sort(Comparator.comparingInt(ShopType::getSort));
-            return Result.ok(shopTypeList);
+            cacheMetrics.recordGet(METRICS_PREFIX, CacheMetrics.HIT);
+            return shopTypeList;
         }
 
         // 3.redis中不存在数据，从数据库中查询
-        List<ShopType> shopTypesByDB = query().orderByAsc("sort").list();
+        cacheMetrics.recordGet(METRICS_PREFIX, CacheMetrics.MISS);
+        List<ShopType> shopTypesByDB = cacheMetrics.dbTimer(METRICS_PREFIX)
+                .record(() -> query().orderByAsc("sort").list());
 
         // 4.将数据存储到redis中
         String shopTypesToRe = JSONUtil.toJsonStr(shopTypesByDB);
 
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, shopTypesToRe);
+        long ttl = ttlPolicy.ttlMillis(CACHE_SHOP_TYPE_KEY, CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+        cacheMetrics.redisTimer("set", METRICS_PREFIX).record(() -> {
+            stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, shopTypesToRe, ttl, TimeUnit.MILLISECONDS);
+        });
 
-        return Result.ok(shopTypesByDB);
+        return shopTypesByDB;
     }
 }
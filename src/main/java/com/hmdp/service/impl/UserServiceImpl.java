@@ -11,8 +11,8 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
-import com.hmdp.utils.RandomTTL;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.TtlPolicy;
 import io.netty.util.internal.StringUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -44,6 +44,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private TtlPolicy ttlPolicy;
+
     @Override
     public Result sendcode(String phone, HttpSession session) {
         // 校验校验手机号格式
@@ -53,7 +56,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         // 生成验证码
         String code = RandomUtil.randomNumbers(6);
         // 保留验证码到redis
-        stringRedisTemplate.opsForValue().set(LOGIN_CODE_KEY + phone, code, RandomTTL.getTTL(LOGIN_CODE_TTL), TimeUnit.MINUTES);
+        String codeKey = LOGIN_CODE_KEY + phone;
+        stringRedisTemplate.opsForValue().set(codeKey, code,
+                ttlPolicy.ttlMillis(codeKey, LOGIN_CODE_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
         // 发送验证码
         log.debug("验证码发送成功：{}", code);
 
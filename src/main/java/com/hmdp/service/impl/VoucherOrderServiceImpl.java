@@ -2,38 +2,57 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.VoucherMeta;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.OrderStatusTracker;
+import com.hmdp.utils.OrderStreamPartitions;
+import com.hmdp.utils.OrderStreamRecovery;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillPurchasers;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SoldOutFlags;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.VoucherMetaCache;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import com.hmdp.config.SeckillOrderProperties;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STATUS_MAX_WAIT;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAM_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_KEY;
 
 /**
  * <p>
@@ -54,7 +73,21 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private RedissonClient redissonClient;
+    private SoldOutFlags soldOutFlags;
+    @Resource
+    private SeckillStockShards seckillStockShards;
+    @Resource
+    private SeckillOrderProperties seckillOrderProperties;
+    @Resource
+    private OrderStreamPartitions orderStreamPartitions;
+    @Resource
+    private OrderStreamRecovery orderStreamRecovery;
+    @Resource
+    private VoucherMetaCache voucherMetaCache;
+    @Resource
+    private OrderStatusTracker orderStatusTracker;
+    @Resource
+    private SeckillPurchasers seckillPurchasers;
     // 配置lua脚本
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
 
@@ -64,144 +97,323 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    // 异步处理线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    // 异步处理线程池，每个线程负责本节点的一部分分区
+    private ExecutorService seckillOrderExecutor;
 
-    /*@PostConstruct
+    private volatile boolean running = true;
+
+    @PostConstruct
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
-    }*/
+        int threads = seckillOrderProperties.getConsumerThreads();
+        AtomicInteger threadCount = new AtomicInteger();
+        seckillOrderExecutor = Executors.newFixedThreadPool(threads,
+                runnable -> new Thread(runnable, "seckill-order-" + threadCount.incrementAndGet()));
+        for (int i = 0; i < threads; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(i, threads));
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        running = false;
+        seckillOrderExecutor.shutdown();
+    }
 
     private class VoucherOrderHandler implements Runnable {
 
-        String queue = "stream.orders";
+        private final int index;
+        private final int threads;
+        /**
+         * 消费者名称为节点标识加线程序号，节点重启后进程号变化，遗留的pending消息由其他消费者认领
+         */
+        private final Consumer consumer;
+        /**
+         * 分区数多于本次读取数量时，下一次读取的起始分区
+         */
+        private int rotation;
+
+        VoucherOrderHandler(int index, int threads) {
+            this.index = index;
+            this.threads = threads;
+            this.consumer = Consumer.from(SECKILL_STREAM_GROUP, orderStreamPartitions.getNodeId() + "-" + index);
+        }
 
         @Override
         public void run() {
-            while (true) {
+            while (running) {
                 try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queue, ReadOffset.lastConsumed())
-                    );
+                    // 0.获取当前负责的分区，分区随节点增减重新分配
+                    List<String> streams = orderStreamPartitions.streamsOf(index, threads);
+                    if (streams.isEmpty()) {
+                        Thread.sleep(1000);
+                        continue;
+                    }
+                    // 1.批量获取消息队列中的订单信息 XREADGROUP GROUP g1 c COUNT n BLOCK 2000 STREAMS stream.orders:p ... > ...
+                    List<MapRecord<String, Object, Object>> records = readBatch(streams);
                     // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有消息，继续下一次循环
+                    if (records.isEmpty()) {
+                        // 如果为空，说明没有消息，继续下一次循环
                         continue;
                     }
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.创建订单
-                    createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
+                    // 3.批量创建订单并确认消息
+                    handleRecords(records);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
                     log.error("处理订单异常", e);
-                    //处理异常消息
-                    handlePendingList();
                 }
             }
         }
 
-        private void handlePendingList() {
-            while (true) {
-                try {
-                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queue, ReadOffset.from("0"))
-                    );
-                    // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有异常消息，结束循环
-                        break;
-                    }
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.创建订单
-                    createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理pending订单异常", e);
+        /**
+         * 读到第一批消息后，在maxLinger内继续读取，直到凑满batchSize
+         */
+        private List<MapRecord<String, Object, Object>> readBatch(List<String> streams) {
+            int batchSize = seckillOrderProperties.getBatchSize();
+            List<MapRecord<String, Object, Object>> records = read(streams, batchSize, Duration.ofSeconds(2));
+            if (records.isEmpty() || records.size() >= batchSize) {
+                return records;
+            }
+            long deadline = System.currentTimeMillis() + seckillOrderProperties.getMaxLinger().toMillis();
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(records);
+            long remaining;
+            // BLOCK 0表示一直阻塞，剩余时间不足1ms时结束
+            while (batch.size() < batchSize && (remaining = deadline - System.currentTimeMillis()) >= 1) {
+                List<MapRecord<String, Object, Object>> more =
+                        read(streams, batchSize - batch.size(), Duration.ofMillis(remaining));
+                if (more.isEmpty()) {
+                    break;
                 }
+                batch.addAll(more);
             }
+            return batch;
         }
-    }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        RLock lock = redissonClient.getLock("lock:order" + userId);
-        boolean isLock = lock.tryLock();
-        if (!isLock) {
-            // 获取锁失败
-            log.error("获取锁失败");
+        /**
+         * XREADGROUP的COUNT对每个stream分别生效，按stream数平分，合并后不超过count
+         * 分区数多于count时只读取其中count个分区，起始分区轮流变化，避免后面的分区饥饿
+         */
+        private List<MapRecord<String, Object, Object>> read(List<String> streams, int count, Duration block) {
+            List<String> targets = streams;
+            if (streams.size() > count) {
+                targets = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    targets.add(streams.get((rotation + i) % streams.size()));
+                }
+                rotation = (rotation + count) % streams.size();
+            }
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    consumer,
+                    StreamReadOptions.empty().count(count / targets.size()).block(block),
+                    offsets(targets, ReadOffset.lastConsumed())
+            );
+            return list == null ? Collections.emptyList() : list;
         }
-        try {
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            lock.unlock();
+
+        private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+            // 解析数据，兼容旧消息中的userID字段
+            List<VoucherOrder> orders = new ArrayList<>(records.size());
+            for (MapRecord<String, Object, Object> record : records) {
+                orders.add(BeanUtil.fillBeanWithMapIgnoreCase(record.getValue(), new VoucherOrder(), true));
+            }
+            // 在一个事务中创建订单，失败时消息留在pending-list中，由OrderStreamRecovery逐条重试
+            try {
+                proxy.createVoucherOrders(orders);
+            } catch (RuntimeException e) {
+                orderStreamRecovery.recordFailure(records, e);
+                throw e;
+            }
+            // 按stream确认整批消息 XACK
+            records.stream()
+                    .collect(Collectors.groupingBy(MapRecord::getStream,
+                            Collectors.mapping(MapRecord::getId, Collectors.toList())))
+                    .forEach((stream, ids) -> stringRedisTemplate.opsForStream()
+                            .acknowledge(stream, SECKILL_STREAM_GROUP, ids.toArray(new RecordId[0])));
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private static StreamOffset<String>[] offsets(List<String> streams, ReadOffset offset) {
+        return streams.stream().map(stream -> StreamOffset.create(stream, offset)).toArray(StreamOffset[]::new);
+    }
+
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-        List<String> keys = new ArrayList<>();
-        // 优惠券剩余数量 key
-        keys.add(SECKILL_STOCK_KEY + voucherId);
-        // 已有订单用户列表 key
-        keys.add(SECKILL_ORDER_KEY + voucherId);
-        // 执行lua脚本
+        // 按本地缓存的元数据判断时间窗口，窗口外的请求不访问redis和数据库
+        VoucherMeta meta = voucherMetaCache.get(voucherId);
+        if (meta == null) {
+            return Result.fail("秒杀券不存在");
+        }
+        long now = System.currentTimeMillis();
+        if (meta.notStarted(now)) {
+            return Result.fail("秒杀尚未开始");
+        }
+        if (meta.ended(now)) {
+            return Result.fail("秒杀已经结束");
+        }
+        // 已售罄的券直接拒绝，不生成订单id也不访问redis
+        if (meta.getStock() <= 0 || soldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
         Long userId = UserHolder.getUser().getId();
         long orderId = redisIdWorker.nextId("voucher:order:");
-        int result = stringRedisTemplate
-                .execute(SECKILL_SCRIPT, keys,
-                        userId.toString(), voucherId.toString(), String.valueOf(orderId)).intValue();
+        // 按用户分区的订单消息队列
+        String streamKey = orderStreamPartitions.streamKeyOf(userId);
+        int result;
+        int shards = seckillStockShards.shardCount(voucherId);
+        if (shards > 1) {
+            // 分片库存模式
+            result = seckillStockShards.order(voucherId, shards, userId, orderId, streamKey);
+        } else {
+            List<String> keys = new ArrayList<>();
+            // 优惠券剩余数量 key
+            keys.add(SECKILL_STOCK_KEY + voucherId);
+            // 已有订单用户列表 key
+            keys.add(SECKILL_ORDER_KEY + voucherId);
+            // 订单消息队列 key
+            keys.add(streamKey);
+            // 秒杀时间窗口 key
+            keys.add(SECKILL_WINDOW_KEY + voucherId);
+            // 已购买用户位图分段 key
+            keys.add(SeckillPurchasers.bitmapKey(voucherId, null, userId));
+            // 执行lua脚本
+            result = stringRedisTemplate
+                    .execute(SECKILL_SCRIPT, keys,
+                            (Object[]) seckillPurchasers.scriptArgs(voucherId, userId, orderId)).intValue();
+        }
         // 判断是否成功
-        if (result != 0) {
-            return Result.fail(result == 1 ? "库存不足" : "不能重复下单");
+        switch (result) {
+            case SeckillStockShards.OK:
+                break;
+            case SeckillStockShards.SOLD_OUT:
+                // 库存不足 通知所有节点标记售罄
+                soldOutFlags.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            case SeckillStockShards.NOT_STARTED:
+                return Result.fail("秒杀尚未开始");
+            case SeckillStockShards.ENDED:
+                return Result.fail("秒杀已经结束");
+            default:
+                return Result.fail("不能重复下单");
         }
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
+        // 标记为排队中，供客户端查询下单结果
+        orderStatusTracker.markQueued(orderId);
         return Result.ok(orderId);
     }
 
+    @Override
     @Transactional
     public void createVoucherOrder(VoucherOrder order) {
-        // 一人一单
-        // 获取用户数据
-        Long userId = order.getUserId();
-        Long voucherId = order.getVoucherId();
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-        if (count > 0) {
-            log.error("用户多次下单");
-            return;
+        createVoucherOrders(Collections.singletonList(order));
+    }
+
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> orders) {
+        // 未能创建的订单
+        List<Long> failed = new ArrayList<>();
+        // 1.批内去重，同一用户同一张券只保留第一单
+        Map<String, VoucherOrder> unique = new LinkedHashMap<>();
+        for (VoucherOrder order : orders) {
+            VoucherOrder kept = unique.putIfAbsent(order.getVoucherId() + ":" + order.getUserId(), order);
+            if (kept != null && !kept.getId().equals(order.getId())) {
+                failed.add(order.getId());
+            }
+        }
+        // 2.一人一单，一次查询出批内用户已有的订单
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (VoucherOrder order : unique.values()) {
+            userIds.add(order.getUserId());
+            voucherIds.add(order.getVoucherId());
         }
-        // 5.修改券的库存
-        boolean success = seckillVoucherService.update()
-                .setSql("stock = stock - 1").eq("voucher_id", voucherId).gt("stock", 0).update();
-        if (!success) {
-            log.error("删减库存失败");
+        List<VoucherOrder> existing = query().select("id", "user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds).list();
+        List<Long> persisted = new ArrayList<>(unique.size());
+        for (VoucherOrder order : existing) {
+            VoucherOrder duplicate = unique.remove(order.getVoucherId() + ":" + order.getUserId());
+            if (duplicate == null) {
+                continue;
+            }
+            if (duplicate.getId().equals(order.getId())) {
+                // 消息重复投递，订单已经落库
+                persisted.add(order.getId());
+            } else {
+                log.error("用户多次下单, userId: {}, voucherId: {}", order.getUserId(), order.getVoucherId());
+                failed.add(duplicate.getId());
+            }
+        }
+        // 3.按券合并扣减库存
+        Map<Long, List<VoucherOrder>> byVoucher = unique.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> toSave = new ArrayList<>(unique.size());
+        byVoucher.forEach((voucherId, voucherOrders) -> {
+            int count = voucherOrders.size();
+            int taken = decrementStock(voucherId, count);
+            if (taken < count) {
+                // 只有超出剩余库存的订单失败，按下单顺序保留前面的订单
+                log.error("删减库存失败, voucherId: {}, count: {}, taken: {}", voucherId, count, taken);
+                voucherOrders.subList(taken, count).forEach(order -> failed.add(order.getId()));
+            }
+            toSave.addAll(voucherOrders.subList(0, taken));
+        });
+        // 4.多行插入订单，订单id沿用下单时生成的id
+        if (!toSave.isEmpty()) {
+            getBaseMapper().insertBatch(toSave);
+            toSave.forEach(order -> persisted.add(order.getId()));
+        }
+        // 5.事务提交后更新订单状态
+        afterCommit(() -> {
+            orderStatusTracker.markPersisted(persisted);
+            orderStatusTracker.markFailed(failed);
+        });
+    }
+
+    /**
+     * 扣减数据库库存，库存不足以扣减整批时按剩余库存扣减
+     * @return 实际扣减的数量
+     */
+    private int decrementStock(Long voucherId, int count) {
+        if (seckillVoucherService.update()
+                .setSql("stock = stock - " + count).eq("voucher_id", voucherId).ge("stock", count).update()) {
+            return count;
+        }
+        while (true) {
+            SeckillVoucher voucher = seckillVoucherService.query().select("stock").eq("voucher_id", voucherId).one();
+            int taken = voucher == null ? 0 : Math.min(count, voucher.getStock());
+            if (taken <= 0) {
+                return 0;
+            }
+            // 查询后库存被并发扣减时重新查询
+            if (seckillVoucherService.update()
+                    .setSql("stock = stock - " + taken).eq("voucher_id", voucherId).ge("stock", taken).update()) {
+                return taken;
+            }
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
             return;
         }
-        // 6.创建订单
-        // 创建全局唯一ID
-        long orderId = redisIdWorker.nextId("order");
-        // 写入数据
-        order.setId(orderId);
-        order.setVoucherId(voucherId);
-        order.setUserId(userId);
-        save(order);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, long wait) {
+        return orderStatusTracker.await(orderId, Math.min(Math.max(wait, 0), SECKILL_STATUS_MAX_WAIT));
+    }
 
     /*public Result seckillVoucher(Long voucherId) {
 
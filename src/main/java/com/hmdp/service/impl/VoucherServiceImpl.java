@@ -7,14 +7,16 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.SeckillPurchasers;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.VoucherMetaCache;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_MAX_SHARDS;
 
 /**
  * <p>
@@ -31,7 +33,13 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private VoucherMetaCache voucherMetaCache;
+
+    @Resource
+    private SeckillPurchasers seckillPurchasers;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -41,9 +49,23 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    @Override
+    public long migratePurchasersToBitmap(Long voucherId) {
+        return seckillPurchasers.migrateToBitmap(voucherId, seckillStockShards.shardCount(voucherId));
+    }
+
     @Override
     @Transactional
-    public void addSeckillVoucher(Voucher voucher) {
+    public Result addSeckillVoucher(Voucher voucher) {
+        // 校验已购买用户的记录方式
+        if (!SeckillPurchasers.isValid(voucher.getPurchasers())) {
+            return Result.fail("不支持的记录方式：" + voucher.getPurchasers());
+        }
+        // 分片数不能超过SECKILL_MAX_SHARDS，预热时只按这个范围恢复分片数
+        Integer shards = voucher.getShards();
+        if (shards != null && (shards < 1 || shards > SECKILL_MAX_SHARDS)) {
+            return Result.fail("分片数必须在1到" + SECKILL_MAX_SHARDS + "之间");
+        }
         // 保存优惠券
         save(voucher);
         // 保存秒杀信息
@@ -54,6 +76,14 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
         // 将stock信息保存到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 库存较多时拆分到多个分片，分散热点券的压力
+        // 分片数不超过库存，避免出现没有库存的分片
+        shards = shards != null ? Math.max(1, Math.min(shards, voucher.getStock())) : SeckillStockShards.defaultShards(voucher.getStock());
+        seckillStockShards.init(voucher.getId(), voucher.getStock(), shards);
+        // 已购买用户的记录方式
+        seckillPurchasers.init(voucher.getId(), voucher.getPurchasers());
+        // 事务提交后通知各节点加载秒杀券元数据
+        voucherMetaCache.publish(voucher.getId());
+        return Result.ok(voucher.getId());
     }
 }
@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.CachedResponse;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_ASYNC_DB_QUEUE_CAPACITY;
+import static com.hmdp.utils.RedisConstants.CACHE_ASYNC_DB_THREADS;
+
+/**
+ * CacheClient的异步版本
+ * 通过lettuce的异步连接读取redis，不占用调用线程；redis返回后的解码、写本地缓存以及未命中时的数据库查询
+ * 都在有界线程池中执行，不占用lettuce的事件循环线程
+ * 本地缓存、编解码、重建调度与CacheClient共用，两者可以混合使用
+ */
+@Component
+public class AsyncCacheClient {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private ReactiveRedisTemplate<String, byte[]> reactiveByteRedisTemplate;
+
+    /**
+     * 解码及数据库回源线程池，队列已满时返回的future以异常结束
+     */
+    private final ThreadPoolExecutor executor;
+
+    public AsyncCacheClient() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(CACHE_ASYNC_DB_THREADS, CACHE_ASYNC_DB_THREADS,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(CACHE_ASYNC_DB_QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "cache-async-db-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 缓存穿透方案的异步版本
+     * @return 数据不存在时以null完成
+     */
+    public <R, ID> CompletableFuture<R> getWithPassThroughAsync(String keyPrefix, ID id, Class<R> type,
+                                                               Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 1. 先查询本地缓存
+        String key = keyPrefix + id;
+        String prefix = CacheMetrics.prefixOf(key);
+        R local = cacheClient.getLocal(key, type);
+        if (local != null) {
+            cacheMetrics.recordGet(prefix, CacheMetrics.L1_HIT);
+            return CompletableFuture.completedFuture(local);
+        }
+        // 2. 异步查询redis，在线程池中处理结果
+        return get(key).thenApplyAsync(bytes -> {
+            R cached = cacheClient.decode(key, bytes, type);
+            if (cached != null) {
+                cacheMetrics.recordGet(prefix, CacheMetrics.HIT);
+                return cached;
+            }
+            if (CacheClient.isNullValue(bytes)) {
+                cacheMetrics.recordGet(prefix, CacheMetrics.NULL_HIT);
+                return null;
+            }
+            // 3. 未命中 查询数据库并写回缓存，同一个JVM内合并为一次加载
+            cacheMetrics.recordGet(prefix, CacheMetrics.MISS);
+            return cacheClient.singleFlight.execute(key,
+                    () -> cacheClient.loadWithPassThrough(key, id, dbFallback, time, unit));
+        }, executor);
+    }
+
+    /**
+     * 逻辑过期方案的异步版本，逻辑过期时返回旧数据并在后台重建
+     * @return 数据不存在时以null完成
+     */
+    public <ID, R> CompletableFuture<R> getWithLogicExpireAsync(String keyPrefix, String lockKeyPrefix, ID id,
+                                                               Class<R> type, Function<ID, R> dbFallback,
+                                                               Long time, TimeUnit unit) {
+        // 1. 先查询本地缓存，未逻辑过期则直接返回
+        String key = keyPrefix + id;
+        String prefix = CacheMetrics.prefixOf(key);
+        RedisData local = cacheClient.getLocal(key, RedisData.class);
+        if (local != null && type.isInstance(local.getData())
+                && local.getExpireTime() != null && local.getExpireTime().isAfter(LocalDateTime.now())) {
+            cacheMetrics.recordGet(prefix, CacheMetrics.L1_HIT);
+            if (cacheClient.shouldRefreshEarly(keyPrefix, local.getExpireTime())) {
+                cacheClient.rebuildInBackground(keyPrefix, key, lockKeyPrefix + id, id, dbFallback, time, unit);
+            }
+            return CompletableFuture.completedFuture(type.cast(local.getData()));
+        }
+        // 2. 异步查询redis，在线程池中处理结果
+        return get(key).thenApplyAsync(bytes -> {
+            if (CacheClient.isNullValue(bytes)) {
+                cacheMetrics.recordGet(prefix, CacheMetrics.NULL_HIT);
+                return null;
+            }
+            RedisData redisData = bytes == null ? null : CacheClient.codecFor(bytes).decodeWithExpire(bytes, type);
+            if (redisData == null) {
+                // 未命中 查询数据库并写入缓存
+                cacheMetrics.recordGet(prefix, CacheMetrics.MISS);
+                return cacheClient.singleFlight.execute(key,
+                        () -> cacheClient.loadWithLogicalExpire(key, id, dbFallback, time, unit));
+            }
+            // 3. 命中 判断是否逻辑过期
+            cacheMetrics.recordGet(prefix, CacheMetrics.HIT);
+            cacheClient.putLocal(key, redisData);
+            LocalDateTime expireTime = redisData.getExpireTime();
+            if (expireTime == null || !expireTime.isAfter(LocalDateTime.now())) {
+                cacheMetrics.recordStale(prefix);
+                cacheClient.rebuildInBackground(keyPrefix, key, lockKeyPrefix + id, id, dbFallback, time, unit);
+            } else if (cacheClient.shouldRefreshEarly(keyPrefix, expireTime)) {
+                cacheClient.rebuildInBackground(keyPrefix, key, lockKeyPrefix + id, id, dbFallback, time, unit);
+            }
+            return type.cast(redisData.getData());
+        }, executor);
+    }
+
+    /**
+     * 查询序列化好的响应体，redis中ETag与响应体保存在一起，命中时不重新计算ETag
+     * @param loader 未命中时生成响应体，返回null表示数据不存在，不写入缓存
+     * @param time 响应体的存活时间，不按TtlPolicy延长，不应超过响应体来源数据的逻辑过期时间
+     * @return 数据不存在时以null完成
+     */
+    public CompletableFuture<CachedResponse> getResponseAsync(String key, Supplier<byte[]> loader,
+                                                              Long time, TimeUnit unit) {
+        // 1. 先查询本地缓存
+        String prefix = CacheMetrics.prefixOf(key);
+        CachedResponse local = cacheClient.getLocal(key, CachedResponse.class);
+        if (local != null) {
+            cacheMetrics.recordGet(prefix, CacheMetrics.L1_HIT);
+            return CompletableFuture.completedFuture(local);
+        }
+        // 2. 异步查询redis，在线程池中处理结果，命中时不解析响应体
+        return get(key).thenApplyAsync(bytes -> {
+            if (bytes != null && bytes.length > 0) {
+                cacheMetrics.recordGet(prefix, CacheMetrics.HIT);
+                CachedResponse response = CachedResponse.decode(bytes);
+                cacheClient.putLocal(key, response);
+                return response;
+            }
+            // 3. 未命中 生成响应体并写入缓存
+            cacheMetrics.recordGet(prefix, CacheMetrics.MISS);
+            return cacheClient.singleFlight.execute(key, () -> {
+                byte[] body = loader.get();
+                if (body == null) {
+                    return null;
+                }
+                CachedResponse response = CachedResponse.of(body);
+                cacheClient.setRaw(key, response.encode(), time, unit);
+                cacheClient.putLocal(key, response);
+                return response;
+            });
+        }, executor);
+    }
+
+    private CompletableFuture<byte[]> get(String key) {
+        // key不存在时Mono为空，future以null完成
+        return reactiveByteRedisTemplate.opsForValue().get(key).toFuture();
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,356 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码器
+ * 格式：魔数(1字节) + 结构id(4字节) + 逻辑过期时间毫秒(8字节) + 空值位图 + 各字段值
+ * 字段按名称排序写入，不写字段名；实体字段变化后结构id随之变化，旧数据按未命中处理
+ * 数据被截断或损坏导致无法解码时同样按未命中处理
+ * 只支持字段类型为Long、Integer、Double、Boolean、String、LocalDateTime的实体，其余对象使用JSON编码
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final BinaryCacheCodec INSTANCE = new BinaryCacheCodec();
+
+    private static final byte MAGIC = (byte) 0xB7;
+    private static final int HEADER_LENGTH = 1 + 4 + 8;
+    private static final long NO_EXPIRE = Long.MIN_VALUE;
+
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_DOUBLE = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_STRING = 5;
+    private static final byte TYPE_DATE_TIME = 6;
+
+    private static final Schema UNSUPPORTED = new Schema(0, null, new Field[0], new byte[0]);
+
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(value, NO_EXPIRE);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime) {
+        if (expireTime == null) {
+            return JsonCacheCodec.INSTANCE.encodeWithExpire(value, null);
+        }
+        return write(value, expireTime.toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (!supports(bytes)) {
+            return JsonCacheCodec.INSTANCE.decode(bytes, type);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        Schema schema = schemaOf(type);
+        if (schema == UNSUPPORTED || buffer.getInt() != schema.id) {
+            return null;
+        }
+        buffer.getLong();
+        return type.cast(read(schema, buffer));
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type) {
+        if (!supports(bytes)) {
+            return JsonCacheCodec.INSTANCE.decodeWithExpire(bytes, type);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        Schema schema = schemaOf(type);
+        if (schema == UNSUPPORTED || buffer.getInt() != schema.id) {
+            return null;
+        }
+        long expireMillis = buffer.getLong();
+        Object data = read(schema, buffer);
+        if (data == null) {
+            return null;
+        }
+        RedisData redisData = new RedisData();
+        if (expireMillis != NO_EXPIRE) {
+            redisData.setExpireTime(LocalDateTime.ofEpochSecond(Math.floorDiv(expireMillis, 1000L),
+                    (int) Math.floorMod(expireMillis, 1000L) * 1_000_000, ZoneOffset.UTC));
+        }
+        redisData.setData(data);
+        return redisData;
+    }
+
+    /**
+     * @return 数据被截断、有多余字节或字段值非法时返回null
+     */
+    private static Object read(Schema schema, ByteBuffer buffer) {
+        try {
+            Object value = schema.read(buffer);
+            return buffer.hasRemaining() ? null : value;
+        } catch (BufferUnderflowException | NegativeArraySizeException | DateTimeException e) {
+            return null;
+        }
+    }
+
+    private byte[] write(Object value, long expireMillis) {
+        Schema schema = value == null ? UNSUPPORTED : schemaOf(value.getClass());
+        if (schema == UNSUPPORTED) {
+            // 不支持的类型使用JSON编码，读取时根据魔数自动识别
+            if (expireMillis == NO_EXPIRE) {
+                return JsonCacheCodec.INSTANCE.encode(value);
+            }
+            LocalDateTime expireTime = LocalDateTime.ofEpochSecond(Math.floorDiv(expireMillis, 1000L),
+                    (int) Math.floorMod(expireMillis, 1000L) * 1_000_000, ZoneOffset.UTC);
+            return JsonCacheCodec.INSTANCE.encodeWithExpire(value, expireTime);
+        }
+        Output out = new Output(128);
+        out.writeByte(MAGIC);
+        out.writeInt(schema.id);
+        out.writeLong(expireMillis);
+        schema.write(value, out);
+        return out.toByteArray();
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, BinaryCacheCodec::createSchema);
+    }
+
+    private static Schema createSchema(Class<?> type) {
+        Constructor<?> constructor;
+        try {
+            constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException | RuntimeException e) {
+            return UNSUPPORTED;
+        }
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    fields.add(field);
+                }
+            }
+        }
+        fields.sort(Comparator.comparing(Field::getName));
+        byte[] types = new byte[fields.size()];
+        StringBuilder signature = new StringBuilder(type.getName());
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            types[i] = typeOf(field.getType());
+            if (types[i] == 0) {
+                return UNSUPPORTED;
+            }
+            field.setAccessible(true);
+            signature.append(';').append(field.getName()).append(':').append(types[i]);
+        }
+        return new Schema(MurmurHash.hash32(signature), constructor, fields.toArray(new Field[0]), types);
+    }
+
+    private static byte typeOf(Class<?> type) {
+        if (type == Long.class || type == long.class) {
+            return TYPE_LONG;
+        }
+        if (type == Integer.class || type == int.class) {
+            return TYPE_INT;
+        }
+        if (type == Double.class || type == double.class) {
+            return TYPE_DOUBLE;
+        }
+        if (type == Boolean.class || type == boolean.class) {
+            return TYPE_BOOLEAN;
+        }
+        if (type == String.class) {
+            return TYPE_STRING;
+        }
+        if (type == LocalDateTime.class) {
+            return TYPE_DATE_TIME;
+        }
+        return 0;
+    }
+
+    private static class Schema {
+        private final int id;
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final byte[] types;
+
+        private Schema(int id, Constructor<?> constructor, Field[] fields, byte[] types) {
+            this.id = id;
+            this.constructor = constructor;
+            this.fields = fields;
+            this.types = types;
+        }
+
+        private void write(Object value, Output out) {
+            try {
+                Object[] values = new Object[fields.length];
+                byte[] nulls = new byte[(fields.length + 7) / 8];
+                for (int i = 0; i < fields.length; i++) {
+                    values[i] = fields[i].get(value);
+                    if (values[i] == null) {
+                        nulls[i >>> 3] |= (byte) (1 << (i & 7));
+                    }
+                }
+                out.writeBytes(nulls);
+                for (int i = 0; i < fields.length; i++) {
+                    if (values[i] != null) {
+                        writeValue(types[i], values[i], out);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private Object read(ByteBuffer buffer) {
+            try {
+                Object value = constructor.newInstance();
+                byte[] nulls = new byte[(fields.length + 7) / 8];
+                buffer.get(nulls);
+                for (int i = 0; i < fields.length; i++) {
+                    if ((nulls[i >>> 3] & (1 << (i & 7))) == 0) {
+                        fields[i].set(value, readValue(types[i], buffer));
+                    }
+                }
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static void writeValue(byte type, Object value, Output out) {
+            switch (type) {
+                case TYPE_LONG:
+                    out.writeVarLong((Long) value);
+                    break;
+                case TYPE_INT:
+                    out.writeVarLong((Integer) value);
+                    break;
+                case TYPE_DOUBLE:
+                    out.writeLong(Double.doubleToRawLongBits((Double) value));
+                    break;
+                case TYPE_BOOLEAN:
+                    out.writeByte((Boolean) value ? (byte) 1 : 0);
+                    break;
+                case TYPE_STRING:
+                    byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    out.writeVarLong(utf8.length);
+                    out.writeBytes(utf8);
+                    break;
+                default:
+                    LocalDateTime time = (LocalDateTime) value;
+                    out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                    out.writeVarLong(time.getNano());
+            }
+        }
+
+        private static Object readValue(byte type, ByteBuffer buffer) {
+            switch (type) {
+                case TYPE_LONG:
+                    return readVarLong(buffer);
+                case TYPE_INT:
+                    return (int) readVarLong(buffer);
+                case TYPE_DOUBLE:
+                    return Double.longBitsToDouble(buffer.getLong());
+                case TYPE_BOOLEAN:
+                    return buffer.get() != 0;
+                case TYPE_STRING:
+                    byte[] utf8 = new byte[(int) readVarLong(buffer)];
+                    buffer.get(utf8);
+                    return new String(utf8, StandardCharsets.UTF_8);
+                default:
+                    long epochSecond = readVarLong(buffer);
+                    return LocalDateTime.ofEpochSecond(epochSecond, (int) readVarLong(buffer), ZoneOffset.UTC);
+            }
+        }
+
+        private static long readVarLong(ByteBuffer buffer) {
+            long raw = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get();
+                raw |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            // zigzag解码
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+    }
+
+    private static class Output {
+        private byte[] buf;
+        private int size;
+
+        private Output(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+
+        private void writeByte(byte b) {
+            ensure(1);
+            buf[size++] = b;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void writeInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        private void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        private void writeVarLong(long v) {
+            // zigzag编码，使绝对值小的负数也只占少量字节
+            long raw = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((raw & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((raw & 0x7F) | 0x80);
+                raw >>>= 7;
+            }
+            buf[size++] = (byte) raw;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+}
@@ -1,21 +1,38 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.*;
 
 
 @Component
@@ -24,114 +41,272 @@ public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(5);
+    @Resource
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private TtlPolicy ttlPolicy;
+
+    /**
+     * 本地一级缓存，key为缓存前缀，只有开启了本地缓存的前缀才会存在
+     */
+    private final Map<String, Cache<String, Object>> localCaches = new ConcurrentHashMap<>();
+
+    /**
+     * 各前缀写入时使用的编解码器，未注册的前缀使用JSON
+     * 读取时根据数据格式自动识别，切换编解码器后新旧格式可以共存
+     */
+    private final Map<String, CacheCodec> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * 热点key的本地副本，过期时间很短，未开启一级缓存的前缀也会使用
+     */
+    private final Cache<String, Object> hotReplica = CacheUtil.newLRUCache(HOT_KEY_LOCAL_SIZE, HOT_KEY_LOCAL_TTL);
+
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 各前缀最近的重建耗时(毫秒)，用于概率提前重建
+     */
+    private final Map<String, Long> rebuildCosts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        // 订阅缓存失效频道，其他节点删除缓存时同步清除本地缓存
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 为指定前缀开启本地一级缓存
+     * @param keyPrefix 缓存key前缀
+     * @param capacity 最多缓存的条目数
+     * @param time 本地缓存有效期
+     * @param unit 时间单位
+     */
+    public void enableLocalCache(String keyPrefix, int capacity, Long time, TimeUnit unit) {
+        localCaches.put(keyPrefix, CacheUtil.newLRUCache(capacity, unit.toMillis(time)));
+    }
+
+    /**
+     * 为指定前缀设置写入缓存时使用的编解码器
+     * @param keyPrefix 缓存key前缀
+     * @param codec 编解码器
+     */
+    public void registerCodec(String keyPrefix, CacheCodec codec) {
+        codecs.put(keyPrefix, codec);
+    }
+
+    /**
+     * 删除缓存，同时清除本节点的本地缓存并通知其他节点
+     * @param key 缓存key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量删除缓存，一次DEL删除redis中的数据，再逐个通知其他节点
+     * @param keys 缓存key
+     */
+    public void delete(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        for (String key : keys) {
+            evictLocal(key);
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        }
+    }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
         // 普通存储
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byte[] bytes = codecOf(key).encode(value);
+        long ttl = ttlPolicy.ttlMillis(key, time, unit);
+        cacheMetrics.redisTimer("set", CacheMetrics.prefixOf(key)).record(() -> {
+            byteRedisTemplate.opsForValue().set(key, bytes, ttl, TimeUnit.MILLISECONDS);
+        });
+        putLocal(key, value);
+    }
+
+    void setRaw(String key, byte[] bytes, Long time, TimeUnit unit) {
+        // 原始字节，不经过编解码器；用于由其他缓存派生的数据，按传入的时间过期，不经过TtlPolicy延长
+        long ttl = unit.toMillis(time);
+        cacheMetrics.redisTimer("set", CacheMetrics.prefixOf(key)).record(() -> {
+            byteRedisTemplate.opsForValue().set(key, bytes, ttl, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void setNull(String key) {
+        // 空值，防止缓存穿透
+        long ttl = ttlPolicy.nullTtlMillis();
+        cacheMetrics.redisTimer("set", CacheMetrics.prefixOf(key)).record(() -> {
+            byteRedisTemplate.opsForValue().set(key, NULL_VALUE, ttl, TimeUnit.MILLISECONDS);
+        });
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
         // 带逻辑过期时间的存储
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setExpireTime(LocalDateTime.now().plus(ttlPolicy.ttlMillis(key, time, unit), ChronoUnit.MILLIS));
+        byte[] bytes = codecOf(key).encodeWithExpire(value, redisData.getExpireTime());
+        cacheMetrics.redisTimer("set", CacheMetrics.prefixOf(key)).record(() -> {
+            byteRedisTemplate.opsForValue().set(key, bytes);
+        });
+        putLocal(key, redisData);
     }
 
     public <R, ID> R getWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         // 缓存穿透
-        // 1. 从redis中查询缓存
+        // 1. 先查询本地缓存，再从redis中查询缓存
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        String prefix = CacheMetrics.prefixOf(key);
+        R local = getLocal(key, type);
+        if (local != null) {
+            cacheMetrics.recordGet(prefix, CacheMetrics.L1_HIT);
+            return local;
+        }
+        byte[] bytes = redisGet(key);
         // 2. 判断是否命中
-        if (StrUtil.isNotBlank(json)) {
+        R cached = decode(key, bytes, type);
+        if (cached != null) {
             // 命中 返回数据
-            return JSONUtil.toBean(json, type);
+            cacheMetrics.recordGet(prefix, CacheMetrics.HIT);
+            return cached;
         }
 
-        // 判断是否为空字符串
-        if (json != null) {
+        // 判断是否为空值
+        if (isNullValue(bytes)) {
+            cacheMetrics.recordGet(prefix, CacheMetrics.NULL_HIT);
             return null;
         }
         // 没有命中
+        cacheMetrics.recordGet(prefix, CacheMetrics.MISS);
+        return loadWithPassThrough(key, id, dbFallback, time, unit);
+    }
+
+    <ID, R> R loadWithPassThrough(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         // 1.从数据库中查询数据
-        R r = dbFallback.apply(id);
+        R r = loadFromDb(key, id, dbFallback);
         // 2.判断数据是否存在
         if (BeanUtil.isEmpty(r)) {
             // 不存在 返回错误,并将空值写入redis，防止缓存穿透
-            stringRedisTemplate.opsForValue().set(key, "", RandomTTL.getTTL(time), unit);
+            setNull(key);
             return null;
         }
 
         // 存在
         // 3.将数据写入redis中
-        json = JSONUtil.toJsonStr(r);
         this.set(key, r, time, unit);
 
         // 4. 返回数据
         return r;
     }
 
+    public <R, ID> R getWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                        Long time, TimeUnit unit, RedisBloomFilter bloomFilter) {
+        // 缓存穿透 布隆过滤器判断一定不存在的数据直接返回，不访问redis和数据库
+        if (!bloomFilter.mightContain(id)) {
+            return null;
+        }
+        return getWithPassThrough(keyPrefix, id, type, dbFallback, time, unit);
+    }
+
     public <R, ID> R getWithMutex(String keyPrefix, String lockKeyPrefix, ID id,
                                   Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         // 缓存击穿 互斥锁
-        // 1. 从redis中查询缓存
+        // 1. 先查询本地缓存，再从redis中查询缓存
         String key = keyPrefix + id;
+        String prefix = CacheMetrics.prefixOf(key);
+        R local = getLocal(key, type);
+        if (local != null) {
+            cacheMetrics.recordGet(prefix, CacheMetrics.L1_HIT);
+            return local;
+        }
 
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = redisGet(key);
         // 2. 判断是否命中
-        if (StrUtil.isNotBlank(json)) {
+        R cached = decode(key, bytes, type);
+        if (cached != null) {
             // 命中 返回数据
-            return JSONUtil.toBean(json, type);
+            cacheMetrics.recordGet(prefix, CacheMetrics.HIT);
+            return cached;
         }
-        // 判断是否为空字符串
-        if (json != null) {
+        // 判断是否为空值
+        if (isNullValue(bytes)) {
+            cacheMetrics.recordGet(prefix, CacheMetrics.NULL_HIT);
             return null;
         }
 
         // 没有命中 缓存重建
+        cacheMetrics.recordGet(prefix, CacheMetrics.MISS);
+        // 同一个JVM内的并发请求合并为一次加载，只有加载线程去竞争互斥锁
         String lockKey = lockKeyPrefix + id;
+        return singleFlight.execute(key, () -> rebuildWithMutex(key, lockKey, id, type, dbFallback, time, unit));
+    }
+
+    private <R, ID> R rebuildWithMutex(String key, String lockKey, ID id,
+                                       Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         R r;
         try {
             // 1.获取互斥锁
-            boolean isLock = tryLock(lockKey);
-            if (!isLock) {
-                // 获取失败 休眠，重新调用
-                Thread.sleep(100);
-                return getWithMutex(keyPrefix, lockKeyPrefix, id, type, dbFallback, time, unit);
+            while (!tryLock(lockKey)) {
+                // 获取失败 说明其他节点正在重建，休眠后检查缓存是否重建成功
+                cacheMetrics.recordLockFailure(CacheMetrics.prefixOf(key));
+                Thread.sleep(50);
+                byte[] bytes = redisGet(key);
+                r = decode(key, bytes, type);
+                if (r != null || isNullValue(bytes)) {
+                    return r;
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
 
+        try {
             // 2. 获取成功，再次判断缓存是否重建成功
             //  从redis中查询缓存
-            json = stringRedisTemplate.opsForValue().get(key);
+            byte[] bytes = redisGet(key);
             //  判断是否命中
-            if (StrUtil.isNotBlank(json)) {
+            r = decode(key, bytes, type);
+            if (r != null || isNullValue(bytes)) {
                 // 命中 返回数据
-                return JSONUtil.toBean(json, type);
-            }
-
-            // 判断是否为空字符串
-            if (json != null) {
-                return null;
+                return r;
             }
 
             // 缓存没有重建成功，从数据库中查询数据
-            r = dbFallback.apply(id);
-            // 模拟重建延时
-            Thread.sleep(200);
+            r = loadFromDb(key, id, dbFallback);
             // 判断数据是否存在
             if (BeanUtil.isEmpty(r)) {
                 // 不存在 返回错误,并将空值写入redis，防止缓存穿透
-                this.set(key, "", time, unit);
+                setNull(key);
                 return null;
             }
 
             // 存在
             // 3.将数据写入redis中
             this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
         } finally {
             // 4.释放互斥锁
             unlock(lockKey);
@@ -144,48 +319,415 @@ public class CacheClient {
     public <ID, R> R getWithLogicExpire(String keyPrefix, String lockKeyPrefix, ID id,
                                         Class<R> type, Function<ID, R> dbFallback,Long time,TimeUnit unit) {
         // 缓存击穿 使用逻辑过期时间
-        // 1. 从redis中查询缓存
+        // 1. 先查询本地缓存，未逻辑过期则直接返回
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2. 判断是否命中
-        if (StrUtil.isBlank(json)) {
-            // 未命中 返回null
+        String prefix = CacheMetrics.prefixOf(key);
+        RedisData local = getLocal(key, RedisData.class);
+        if (local != null && type.isInstance(local.getData())
+                && local.getExpireTime() != null && local.getExpireTime().isAfter(LocalDateTime.now())) {
+            cacheMetrics.recordGet(prefix, CacheMetrics.L1_HIT);
+            // 临近过期时按概率提前重建
+            if (shouldRefreshEarly(keyPrefix, local.getExpireTime())) {
+                rebuildInBackground(keyPrefix, key, lockKeyPrefix + id, id, dbFallback, time, unit);
+            }
+            return type.cast(local.getData());
+        }
+        // 2. 从redis中查询缓存
+        byte[] bytes = redisGet(key);
+        // 判断是否为空值
+        if (isNullValue(bytes)) {
+            cacheMetrics.recordGet(prefix, CacheMetrics.NULL_HIT);
             return null;
         }
+        // 获取数据，逻辑过期时间与数据一次解码
+        RedisData redisData = bytes == null ? null : codecFor(bytes).decodeWithExpire(bytes, type);
+        if (redisData == null) {
+            // 未命中(未预热或已被删除) 同一个JVM内合并为一次数据库查询并写入缓存
+            cacheMetrics.recordGet(prefix, CacheMetrics.MISS);
+            return singleFlight.execute(key, () -> loadWithLogicalExpire(key, id, dbFallback, time, unit));
+        }
         // 命中
         // 3. 判断是否逻辑过期
-        // 获取数据
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-
         LocalDateTime expireTime = redisData.getExpireTime();
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        R r = type.cast(redisData.getData());
+        putLocal(key, redisData);
+        cacheMetrics.recordGet(prefix, CacheMetrics.HIT);
 
-        // 没有逻辑过期 返回数据
-        if (expireTime.isAfter(LocalDateTime.now())) {
+        // 没有逻辑过期 返回数据，临近过期时按概率提前重建
+        if (expireTime != null && expireTime.isAfter(LocalDateTime.now())) {
+            if (shouldRefreshEarly(keyPrefix, expireTime)) {
+                rebuildInBackground(keyPrefix, key, lockKeyPrefix + id, id, dbFallback, time, unit);
+            }
             return r;
         }
         // 逻辑过期，修改缓存 返回过期数据
-        // 获取互斥锁，开启独立线程
-        String lockKey = lockKeyPrefix + id;
-        boolean isLock = tryLock(lockKey);
-        // 是否获取成功
-        if (isLock) {
-            //获取成功，创建线程，重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    R rToSave = dbFallback.apply(id);
-                    this.setWithLogicalExpire(key,rToSave,time,unit);
-                } catch (RuntimeException e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unlock(lockKey);
+        cacheMetrics.recordStale(prefix);
+        rebuildInBackground(keyPrefix, key, lockKeyPrefix + id, id, dbFallback, time, unit);
+        // 返回旧数据
+        return r;
+    }
+
+    <ID, R> R loadWithLogicalExpire(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        R r = loadFromDb(key, id, dbFallback);
+        if (BeanUtil.isEmpty(r)) {
+            // 不存在 将空值写入redis，防止缓存穿透
+            setNull(key);
+            return null;
+        }
+        setWithLogicalExpire(key, r, time, unit);
+        return r;
+    }
+
+    /**
+     * 批量写入带逻辑过期时间的数据，通过管道一次写入
+     * 每条数据的逻辑过期时间由过期策略随机化，避免同一批数据同时过期
+     * @param idGetter 从数据中获取id，与keyPrefix拼接成key
+     */
+    public <R> void setManyWithLogicalExpire(String keyPrefix, Collection<R> values, Function<R, ?> idGetter,
+                                             Long time, TimeUnit unit) {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, byte[]> toSave = new HashMap<>();
+        for (R value : values) {
+            String key = keyPrefix + idGetter.apply(value);
+            LocalDateTime expireTime = now.plus(ttlPolicy.ttlMillis(key, time, unit), ChronoUnit.MILLIS);
+            toSave.put(key, codecOf(key).encodeWithExpire(value, expireTime));
+        }
+        pipelineSet(toSave, null);
+    }
+
+    /**
+     * 概率提前重建 (XFetch)
+     * 距离逻辑过期时间越近、重建耗时越长，触发重建的概率越大，使热点key在过期前就被刷新
+     * 满足 -重建耗时 * beta * ln(random) >= 剩余有效时间 时触发
+     */
+    boolean shouldRefreshEarly(String keyPrefix, LocalDateTime expireTime) {
+        long remainingMillis = Duration.between(LocalDateTime.now(), expireTime).toMillis();
+        long costMillis = rebuildCosts.getOrDefault(keyPrefix, EARLY_REFRESH_DEFAULT_COST);
+        double gap = -costMillis * EARLY_REFRESH_BETA * Math.log(ThreadLocalRandom.current().nextDouble());
+        return gap >= remainingMillis;
+    }
+
+    private void recordRebuildCost(String keyPrefix, long costMillis) {
+        // 指数加权平均，平滑单次重建耗时的波动
+        rebuildCosts.merge(keyPrefix, costMillis, (old, cost) -> (old * 4 + cost) / 5);
+    }
+
+    <ID, R> void rebuildInBackground(String keyPrefix, String key, String lockKey, ID id,
+                                             Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 交给重建调度器，同一个key在本节点只会排队一次；队列已满时放弃重建，继续返回旧数据
+        // 越热的key越先重建
+        rebuildScheduler.submit(key, Math.max(1, hotKeyDetector.estimate(key)), () -> {
+            // 获取互斥锁，防止多个节点同时重建
+            if (!tryLock(lockKey)) {
+                cacheMetrics.recordLockFailure(CacheMetrics.prefixOf(key));
+                return;
+            }
+            try {
+                long begin = System.currentTimeMillis();
+                cacheMetrics.rebuildTimer(CacheMetrics.prefixOf(key)).record(() -> {
+                    R rToSave = loadFromDb(key, id, dbFallback);
+                    this.setWithLogicalExpire(key, rToSave, time, unit);
+                });
+                recordRebuildCost(keyPrefix, System.currentTimeMillis() - begin);
+            } finally {
+                unlock(lockKey);
+            }
+        });
+    }
+
+    /**
+     * 批量查询，缓存穿透方案
+     * 一次MGET查询redis，未命中的数据通过一次批量查询数据库加载，再通过管道批量写回redis
+     * @param ids 要查询的id
+     * @param bulkDbFallback 根据多个id批量查询数据库
+     * @param idGetter 从数据中获取id，用于匹配数据库查询结果
+     * @return id与数据的映射，按ids的顺序排列，不存在的数据不包含在内
+     */
+    public <ID, R> Map<ID, R> getMany(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                      Function<Collection<ID>, List<R>> bulkDbFallback, Function<R, ID> idGetter,
+                                      Long time, TimeUnit unit) {
+        String prefix = CacheMetrics.prefixOf(keyPrefix);
+        Map<ID, R> result = new LinkedHashMap<>();
+        List<ID> uncached = new ArrayList<>();
+        // 1. 查询本地缓存
+        for (ID id : ids) {
+            R local = getLocal(keyPrefix + id, type);
+            if (local != null) {
+                result.put(id, local);
+            } else {
+                uncached.add(id);
+            }
+        }
+        cacheMetrics.recordGet(prefix, CacheMetrics.L1_HIT, result.size());
+        if (uncached.isEmpty()) {
+            return result;
+        }
+        // 2. 一次MGET查询redis
+        List<byte[]> values = multiGet(keyPrefix, uncached);
+        List<ID> misses = new ArrayList<>();
+        int nullHits = 0;
+        for (int i = 0; i < uncached.size(); i++) {
+            ID id = uncached.get(i);
+            byte[] bytes = values.get(i);
+            R r = decode(keyPrefix + id, bytes, type);
+            if (r != null) {
+                result.put(id, r);
+            } else if (isNullValue(bytes)) {
+                nullHits++;
+            } else {
+                misses.add(id);
+            }
+        }
+        cacheMetrics.recordGet(prefix, CacheMetrics.HIT, uncached.size() - nullHits - misses.size());
+        cacheMetrics.recordGet(prefix, CacheMetrics.NULL_HIT, nullHits);
+        cacheMetrics.recordGet(prefix, CacheMetrics.MISS, misses.size());
+        if (misses.isEmpty()) {
+            return orderBy(ids, result);
+        }
+        // 3. 未命中的数据批量查询数据库
+        Map<ID, R> loaded = new HashMap<>();
+        List<R> fromDb = cacheMetrics.dbTimer(prefix).record(() -> bulkDbFallback.apply(misses));
+        for (R r : fromDb) {
+            loaded.put(idGetter.apply(r), r);
+        }
+        // 4. 通过管道写回redis，不存在的数据写入空值防止缓存穿透
+        Map<String, byte[]> toSave = new HashMap<>();
+        for (ID id : misses) {
+            String key = keyPrefix + id;
+            R r = loaded.get(id);
+            if (r == null) {
+                toSave.put(key, NULL_VALUE);
+            } else {
+                toSave.put(key, codecOf(key).encode(r));
+                putLocal(key, r);
+                result.put(id, r);
+            }
+        }
+        pipelineSet(toSave, key -> toSave.get(key) == NULL_VALUE
+                ? ttlPolicy.nullTtlMillis() : ttlPolicy.ttlMillis(key, time, unit));
+        return orderBy(ids, result);
+    }
+
+    /**
+     * 批量查询，逻辑过期方案
+     * 逻辑过期的数据返回旧值并在后台重建，未命中的数据批量查询数据库后写入
+     */
+    public <ID, R> Map<ID, R> getManyWithLogicExpire(String keyPrefix, String lockKeyPrefix, Collection<ID> ids,
+                                                     Class<R> type, Function<Collection<ID>, List<R>> bulkDbFallback,
+                                                     Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        String prefix = CacheMetrics.prefixOf(keyPrefix);
+        Map<ID, R> result = new LinkedHashMap<>();
+        List<ID> uncached = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        // 1. 查询本地缓存
+        for (ID id : ids) {
+            RedisData local = getLocal(keyPrefix + id, RedisData.class);
+            if (local != null && type.isInstance(local.getData())
+                    && local.getExpireTime() != null && local.getExpireTime().isAfter(now)) {
+                result.put(id, type.cast(local.getData()));
+                if (shouldRefreshEarly(keyPrefix, local.getExpireTime())) {
+                    rebuildInBackground(keyPrefix, keyPrefix + id, lockKeyPrefix + id, id,
+                            single -> firstOrNull(bulkDbFallback.apply(Collections.singletonList(single))), time, unit);
                 }
+            } else {
+                uncached.add(id);
+            }
+        }
+        cacheMetrics.recordGet(prefix, CacheMetrics.L1_HIT, result.size());
+        if (uncached.isEmpty()) {
+            return result;
+        }
+        // 2. 一次MGET查询redis
+        List<byte[]> values = multiGet(keyPrefix, uncached);
+        List<ID> misses = new ArrayList<>();
+        int nullHits = 0;
+        for (int i = 0; i < uncached.size(); i++) {
+            ID id = uncached.get(i);
+            String key = keyPrefix + id;
+            byte[] bytes = values.get(i);
+            if (isNullValue(bytes)) {
+                // 空值 数据库中不存在
+                nullHits++;
+                continue;
+            }
+            RedisData redisData = bytes == null ? null : codecFor(bytes).decodeWithExpire(bytes, type);
+            if (redisData == null) {
+                misses.add(id);
+                continue;
+            }
+            putLocal(key, redisData);
+            result.put(id, type.cast(redisData.getData()));
+            boolean expired = redisData.getExpireTime() == null || !redisData.getExpireTime().isAfter(now);
+            if (expired) {
+                cacheMetrics.recordStale(prefix);
+            }
+            if (expired || shouldRefreshEarly(keyPrefix, redisData.getExpireTime())) {
+                // 逻辑过期或临近过期 返回旧数据并在后台重建
+                rebuildInBackground(keyPrefix, key, lockKeyPrefix + id, id,
+                        single -> firstOrNull(bulkDbFallback.apply(Collections.singletonList(single))), time, unit);
+            }
+        }
+        cacheMetrics.recordGet(prefix, CacheMetrics.HIT, uncached.size() - nullHits - misses.size());
+        cacheMetrics.recordGet(prefix, CacheMetrics.NULL_HIT, nullHits);
+        cacheMetrics.recordGet(prefix, CacheMetrics.MISS, misses.size());
+        if (misses.isEmpty()) {
+            return orderBy(ids, result);
+        }
+        // 3. 未命中的数据批量查询数据库，通过管道写回redis
+        Map<ID, R> loaded = new HashMap<>();
+        List<R> fromDb = cacheMetrics.dbTimer(prefix).record(() -> bulkDbFallback.apply(misses));
+        for (R r : fromDb) {
+            loaded.put(idGetter.apply(r), r);
+        }
+        Map<String, byte[]> toSave = new HashMap<>();
+        Map<String, byte[]> nulls = new HashMap<>();
+        for (ID id : misses) {
+            String key = keyPrefix + id;
+            R r = loaded.get(id);
+            if (r == null) {
+                // 不存在的数据写入空值，与单key查询一样防止缓存穿透
+                nulls.put(key, NULL_VALUE);
+                continue;
+            }
+            LocalDateTime expireTime = now.plus(ttlPolicy.ttlMillis(key, time, unit), ChronoUnit.MILLIS);
+            RedisData redisData = new RedisData();
+            redisData.setData(r);
+            redisData.setExpireTime(expireTime);
+            toSave.put(key, codecOf(key).encodeWithExpire(r, expireTime));
+            putLocal(key, redisData);
+            result.put(id, r);
+        }
+        pipelineSet(toSave, null);
+        pipelineSet(nulls, key -> ttlPolicy.nullTtlMillis());
+        return orderBy(ids, result);
+    }
+
+    private byte[] redisGet(String key) {
+        return cacheMetrics.redisTimer("get", CacheMetrics.prefixOf(key))
+                .record(() -> byteRedisTemplate.opsForValue().get(key));
+    }
+
+    <ID, R> R loadFromDb(String key, ID id, Function<ID, R> dbFallback) {
+        return cacheMetrics.dbTimer(CacheMetrics.prefixOf(key)).record(() -> dbFallback.apply(id));
+    }
+
+    private <ID> List<byte[]> multiGet(String keyPrefix, List<ID> ids) {
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            keys.add(keyPrefix + id);
+        }
+        List<byte[]> values = cacheMetrics.redisTimer("mget", CacheMetrics.prefixOf(keyPrefix))
+                .record(() -> byteRedisTemplate.opsForValue().multiGet(keys));
+        return values == null ? Collections.nCopies(keys.size(), null) : values;
+    }
+
+    /**
+     * @param ttlMillis 每个key的过期时间(毫秒)，为null时不设置过期时间
+     */
+    private void pipelineSet(Map<String, byte[]> values, ToLongFunction<String> ttlMillis) {
+        if (values.isEmpty()) {
+            return;
+        }
+        String prefix = CacheMetrics.prefixOf(values.keySet().iterator().next());
+        cacheMetrics.redisTimer("pipeline_set", prefix).record(() -> {
+            byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                    Expiration expiration = ttlMillis == null ? Expiration.persistent()
+                            : Expiration.milliseconds(ttlMillis.applyAsLong(entry.getKey()));
+                    connection.set(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue(),
+                            expiration, RedisStringCommands.SetOption.upsert());
+                }
+                return null;
             });
+        });
+    }
+
+    private static <ID, R> Map<ID, R> orderBy(Collection<ID> ids, Map<ID, R> found) {
+        Map<ID, R> ordered = new LinkedHashMap<>();
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                ordered.put(id, r);
+            }
         }
-        // 返回旧数据
+        return ordered;
+    }
+
+    private static <R> R firstOrNull(List<R> list) {
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+
+
+    private static <V> V matchPrefix(Map<String, V> byPrefix, String key) {
+        // 按最长前缀匹配
+        V value = null;
+        int matched = -1;
+        for (Map.Entry<String, V> entry : byPrefix.entrySet()) {
+            String prefix = entry.getKey();
+            if (key.startsWith(prefix) && prefix.length() > matched) {
+                value = entry.getValue();
+                matched = prefix.length();
+            }
+        }
+        return value;
+    }
+
+    private CacheCodec codecOf(String key) {
+        CacheCodec codec = matchPrefix(codecs, key);
+        return codec == null ? JsonCacheCodec.INSTANCE : codec;
+    }
+
+    static CacheCodec codecFor(byte[] bytes) {
+        // 根据数据格式识别编解码器
+        return BinaryCacheCodec.INSTANCE.supports(bytes) ? BinaryCacheCodec.INSTANCE : JsonCacheCodec.INSTANCE;
+    }
+
+    static boolean isNullValue(byte[] bytes) {
+        return bytes != null && bytes.length == 0;
+    }
+
+    <R> R decode(String key, byte[] bytes, Class<R> type) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        R r = codecFor(bytes).decode(bytes, type);
+        putLocal(key, r);
         return r;
     }
 
+    private Cache<String, Object> localCacheOf(String key) {
+        Cache<String, Object> cache = matchPrefix(localCaches, key);
+        if (cache == null && hotKeyDetector.isHot(key)) {
+            // 热点key即使没有开启一级缓存，也在本地保留一份短时间的副本
+            cache = hotReplica;
+        }
+        return cache;
+    }
+
+    <R> R getLocal(String key, Class<R> type) {
+        hotKeyDetector.record(key);
+        Cache<String, Object> cache = localCacheOf(key);
+        if (cache == null) {
+            return null;
+        }
+        Object value = cache.get(key);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    void putLocal(String key, Object value) {
+        Cache<String, Object> cache = localCacheOf(key);
+        if (cache != null && value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    private void evictLocal(String key) {
+        Cache<String, Object> cache = matchPrefix(localCaches, key);
+        if (cache != null) {
+            cache.remove(key);
+        }
+        hotReplica.remove(key);
+    }
 
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
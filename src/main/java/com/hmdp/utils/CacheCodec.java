@@ -0,0 +1,28 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * 缓存值编解码器
+ */
+public interface CacheCodec {
+
+    /**
+     * 判断数据是否由当前编解码器编码，用于读取时自动识别格式
+     */
+    boolean supports(byte[] bytes);
+
+    byte[] encode(Object value);
+
+    byte[] encodeWithExpire(Object value, LocalDateTime expireTime);
+
+    /**
+     * @return 数据格式与类型不匹配或数据损坏时返回null，按未命中处理
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * @return data已解码为type类型的RedisData，数据格式与类型不匹配或数据损坏时返回null
+     */
+    <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type);
+}
@@ -0,0 +1,118 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 缓存指标，按缓存前缀统计
+ * cache.gets：读取结果，result标签为hit、l1_hit、null_hit、miss
+ * cache.lock.failures：获取重建互斥锁失败次数
+ * cache.stale：返回逻辑过期旧数据的次数
+ * cache.redis / cache.db / cache.rebuild：redis读写、数据库回源、缓存重建的耗时分布
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String GETS = "cache.gets";
+
+    public static final String HIT = "hit";
+    public static final String L1_HIT = "l1_hit";
+    public static final String NULL_HIT = "null_hit";
+    public static final String MISS = "miss";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        Gauge.builder("cache.rebuild.queue", rebuildScheduler, CacheRebuildScheduler::getQueueDepth)
+                .description("等待执行的缓存重建任务数")
+                .register(meterRegistry);
+        FunctionCounter.builder("cache.rebuild.rejected", rebuildScheduler, CacheRebuildScheduler::getRejectedCount)
+                .description("队列已满被拒绝的缓存重建任务数")
+                .register(meterRegistry);
+        Gauge.builder("cache.hot.keys", hotKeyDetector, HotKeyDetector::hotKeyCount)
+                .description("本节点当前的热点key数量")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 根据缓存key获取前缀，即最后一个冒号及之前的部分
+     * 本地缓存、编解码、过期时间也按前缀匹配，一个前缀下只能有一类数据，例如店铺类型使用cache:shop-type:，不放在cache:shop:下
+     */
+    public static String prefixOf(String key) {
+        int index = key.lastIndexOf(':');
+        return index < 0 ? key : key.substring(0, index + 1);
+    }
+
+    public void recordGet(String prefix, String result) {
+        recordGet(prefix, result, 1);
+    }
+
+    public void recordGet(String prefix, String result, long count) {
+        if (count > 0) {
+            counter(GETS, prefix, "result", result).increment(count);
+        }
+    }
+
+    public void recordLockFailure(String prefix) {
+        counter("cache.lock.failures", prefix, null, null).increment();
+    }
+
+    public void recordStale(String prefix) {
+        counter("cache.stale", prefix, null, null).increment();
+    }
+
+    /**
+     * @param op redis操作，例如get、set、mget
+     */
+    public Timer redisTimer(String op, String prefix) {
+        return timer("cache.redis", prefix, op);
+    }
+
+    public Timer dbTimer(String prefix) {
+        return timer("cache.db", prefix, null);
+    }
+
+    public Timer rebuildTimer(String prefix) {
+        return timer("cache.rebuild", prefix, null);
+    }
+
+    private Counter counter(String name, String prefix, String tagKey, String tagValue) {
+        return counters.computeIfAbsent(name + '|' + prefix + '|' + tagValue, k -> {
+            Counter.Builder builder = Counter.builder(name).tag("prefix", prefix);
+            if (tagKey != null) {
+                builder.tag(tagKey, tagValue);
+            }
+            return builder.register(meterRegistry);
+        });
+    }
+
+    private Timer timer(String name, String prefix, String op) {
+        return timers.computeIfAbsent(name + '|' + prefix + '|' + op, k -> {
+            Timer.Builder builder = Timer.builder(name).tag("prefix", prefix).publishPercentileHistogram();
+            if (op != null) {
+                builder.tag("op", op);
+            }
+            return builder.register(meterRegistry);
+        });
+    }
+}
@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * /actuator/cache，按缓存前缀汇总命中率
+ * 命中率 = (hit + l1_hit + null_hit) / 全部读取次数
+ * 缓存管理操作也只通过该端点提供，不经过面向用户的接口；actuator只监听management.server的管理端口和地址，
+ * 对外的应用端口上没有这些操作：
+ * GET /actuator/cache/{rebuild|warmup|hot-keys} 查询重建统计、预热进度、热点key
+ * POST /actuator/cache/{bloom-rebuild|warmup|shop-type-refresh} 重建布隆过滤器、重新预热、刷新店铺类型
+ */
+@Component
+@Endpoint(id = "cache")
+public class CacheMetricsEndpoint {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Lazy
+    @Resource
+    private IShopService shopService;
+
+    @Lazy
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @ReadOperation
+    public Map<String, Object> summary() {
+        // 1.按前缀汇总各读取结果的次数
+        Map<String, Map<String, Long>> byPrefix = new TreeMap<>();
+        for (Counter counter : meterRegistry.find(CacheMetrics.GETS).counters()) {
+            String prefix = counter.getId().getTag("prefix");
+            String result = counter.getId().getTag("result");
+            byPrefix.computeIfAbsent(prefix, k -> new LinkedHashMap<>())
+                    .merge(result, (long) counter.count(), Long::sum);
+        }
+        // 2.计算命中率
+        Map<String, Object> prefixes = new LinkedHashMap<>();
+        byPrefix.forEach((prefix, counts) -> {
+            long total = counts.values().stream().mapToLong(Long::longValue).sum();
+            long misses = counts.getOrDefault(CacheMetrics.MISS, 0L);
+            Map<String, Object> stats = new LinkedHashMap<>(counts);
+            stats.put("total", total);
+            stats.put("hitRatio", total == 0 ? 0 : (double) (total - misses) / total);
+            stats.put("lockFailures", count("cache.lock.failures", prefix));
+            stats.put("stale", count("cache.stale", prefix));
+            prefixes.put(prefix, stats);
+        });
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("prefixes", prefixes);
+        summary.put("rebuild", rebuildScheduler.stats());
+        return summary;
+    }
+
+    /**
+     * @return 未知的name返回null，响应404
+     */
+    @ReadOperation
+    public Object detail(@Selector String name) {
+        switch (name) {
+            case "rebuild":
+                // 队列深度、重建耗时等
+                return rebuildScheduler.stats();
+            case "warmup":
+                return cacheWarmer.progress();
+            case "hot-keys":
+                // 本节点当前的热点key及其QPS，按QPS从高到低排列
+                return hotKeyDetector.hotKeys();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return 未知的action返回null，响应404
+     */
+    @WriteOperation
+    public Object execute(@Selector String action) {
+        switch (action) {
+            case "bloom-rebuild":
+                // 根据数据库重建店铺布隆过滤器，返回店铺数量
+                return shopService.rebuildBloomFilter();
+            case "warmup":
+                // 重新执行缓存预热，例如redis故障切换之后
+                cacheWarmer.warmUp();
+                return cacheWarmer.progress();
+            case "shop-type-refresh":
+                // 店铺类型数据修改后刷新，各节点在版本检查时重新加载，返回新的版本号
+                return shopTypeService.refresh();
+            default:
+                return null;
+        }
+    }
+
+    private long count(String name, String prefix) {
+        Counter counter = meterRegistry.find(name).tag("prefix", prefix).counter();
+        return counter == null ? 0 : (long) counter.count();
+    }
+}
@@ -0,0 +1,173 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILD_QUEUE_CAPACITY;
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILD_THREADS;
+
+/**
+ * 缓存重建调度器
+ * 队列有界，同一个key同时只会有一个重建任务，重复提交会提高该任务的优先级(越热的key越先重建)
+ * 队列已满时拒绝提交，调用方继续返回旧数据
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final Map<String, RebuildTask> pending = new ConcurrentHashMap<>();
+
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>(CACHE_REBUILD_QUEUE_CAPACITY,
+            Comparator.comparingLong(task -> -((RebuildTask) task).hotness));
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 已占用的队列容量，提交时先占用，任务出队开始执行时释放，保证队列长度不超过CACHE_REBUILD_QUEUE_CAPACITY
+     */
+    private final AtomicInteger reserved = new AtomicInteger();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    public CacheRebuildScheduler() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(CACHE_REBUILD_THREADS, CACHE_REBUILD_THREADS,
+                0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "cache-rebuild-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 缓存key，用于去重
+     * @param rebuild 重建逻辑
+     * @return 队列已满被拒绝时返回false
+     */
+    public boolean submit(String key, Runnable rebuild) {
+        return submit(key, 1, rebuild);
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 缓存key，用于去重
+     * @param hotness 初始优先级，越大越先执行
+     * @param rebuild 重建逻辑
+     * @return 队列已满被拒绝时返回false
+     */
+    public boolean submit(String key, long hotness, Runnable rebuild) {
+        RebuildTask task = new RebuildTask(key, hotness, rebuild);
+        RebuildTask existing = pending.putIfAbsent(key, task);
+        if (existing != null) {
+            // 已有相同key的任务，说明该key访问频繁，提高其优先级
+            deduplicated.increment();
+            if (queue.remove(existing)) {
+                existing.hotness++;
+                queue.offer(existing);
+            }
+            return true;
+        }
+        if (!reserve()) {
+            pending.remove(key, task);
+            rejected.increment();
+            return false;
+        }
+        submitted.increment();
+        executor.execute(task);
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private boolean reserve() {
+        int used;
+        do {
+            used = reserved.get();
+            if (used >= CACHE_REBUILD_QUEUE_CAPACITY) {
+                return false;
+            }
+        } while (!reserved.compareAndSet(used, used + 1));
+        return true;
+    }
+
+    /**
+     * @return 重建任务的统计数据
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long done = completed.sum();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", CACHE_REBUILD_QUEUE_CAPACITY);
+        stats.put("running", executor.getActiveCount());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", done);
+        stats.put("failed", failed.sum());
+        stats.put("avgLatencyMillis", done == 0 ? 0 : totalLatency.sum() / done);
+        stats.put("maxLatencyMillis", maxLatency.get());
+        return stats;
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class RebuildTask implements Runnable {
+        private final String key;
+        private final Runnable rebuild;
+        private volatile long hotness;
+
+        private RebuildTask(String key, long hotness, Runnable rebuild) {
+            this.key = key;
+            this.hotness = hotness;
+            this.rebuild = rebuild;
+        }
+
+        @Override
+        public void run() {
+            // 已出队，释放占用的队列容量
+            reserved.decrementAndGet();
+            long begin = System.currentTimeMillis();
+            try {
+                rebuild.run();
+                long latency = System.currentTimeMillis() - begin;
+                totalLatency.add(latency);
+                maxLatency.accumulateAndGet(latency, Math::max);
+                completed.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.error("缓存重建失败, key: {}", key, e);
+            } finally {
+                pending.remove(key, this);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时预热缓存：店铺、店铺类型、进行中的秒杀券库存和元数据
+ * 按id游标分批读取数据库，通过管道批量写入redis；预热完成前应用保持不接收流量的就绪状态
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private VoucherMetaCache voucherMetaCache;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+
+    private volatile String state = "PENDING";
+    private final AtomicLong shops = new AtomicLong();
+    private final AtomicLong shopTypes = new AtomicLong();
+    private final AtomicLong seckillVouchers = new AtomicLong();
+    private volatile long costMillis;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        // runner执行完成后spring才会将应用标记为ACCEPTING_TRAFFIC，这里显式标记预热期间不接收流量
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        warmUp();
+    }
+
+    public synchronized void warmUp() {
+        state = "RUNNING";
+        shops.set(0);
+        shopTypes.set(0);
+        seckillVouchers.set(0);
+        long begin = System.currentTimeMillis();
+        try {
+            warmUpShops();
+            warmUpShopTypes();
+            warmUpSeckillStock();
+            state = "DONE";
+        } catch (RuntimeException e) {
+            // 预热失败不影响启动，未预热的数据在访问时加载
+            state = "FAILED";
+            log.error("缓存预热失败", e);
+        } finally {
+            costMillis = System.currentTimeMillis() - begin;
+            log.info("缓存预热{}: 店铺{}条, 店铺类型{}条, 秒杀券{}条, 耗时{}ms",
+                    state, shops.get(), shopTypes.get(), seckillVouchers.get(), costMillis);
+        }
+    }
+
+    private void warmUpShops() {
+        long lastId = 0;
+        while (true) {
+            List<Shop> batch = shopService.query()
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + CACHE_WARM_UP_BATCH_SIZE)
+                    .list();
+            if (batch.isEmpty()) {
+                return;
+            }
+            // 预热的数据在整个预热期间及就绪后一段时间内有效，避免先写入的批次在就绪前就已逻辑过期
+            cacheClient.setManyWithLogicalExpire(CACHE_SHOP_KEY, batch, Shop::getId,
+                    CACHE_WARM_UP_SHOP_TTL, TimeUnit.MINUTES);
+            lastId = batch.get(batch.size() - 1).getId();
+            log.debug("预热店铺 {} 条", shops.addAndGet(batch.size()));
+        }
+    }
+
+    private void warmUpShopTypes() {
+        // 店铺类型数据量很小，由查询方法在缓存缺失时整体加载
+        List<?> types = (List<?>) shopTypeService.queryList().getData();
+        shopTypes.set(types == null ? 0 : types.size());
+    }
+
+    private void warmUpSeckillStock() {
+        long lastId = 0;
+        LocalDateTime now = LocalDateTime.now();
+        while (true) {
+            List<SeckillVoucher> batch = seckillVoucherService.query()
+                    .gt("voucher_id", lastId)
+                    .gt("end_time", now)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + CACHE_WARM_UP_BATCH_SIZE)
+                    .list();
+            if (batch.isEmpty()) {
+                return;
+            }
+            warmUpStock(batch);
+            // 加载秒杀券元数据到本地
+            voucherMetaCache.loadAll(batch);
+            lastId = batch.get(batch.size() - 1).getVoucherId();
+            log.debug("预热秒杀券库存 {} 条", seckillVouchers.addAndGet(batch.size()));
+        }
+    }
+
+    /**
+     * 只补充redis中不存在的库存，已存在的库存可能已被扣减，不能用数据库的值覆盖
+     * 分片的券不写入seckill:stock:<id>，否则分片数丢失时会按原来的key从完整库存开始扣减导致超卖；
+     * 分片数丢失而分片库存还在时，按存在的分片key恢复分片数
+     */
+    private void warmUpStock(List<SeckillVoucher> batch) {
+        // 1.查询分片数和各分片库存是否存在
+        int keysPerVoucher = 1 + SECKILL_MAX_SHARDS;
+        List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SeckillVoucher voucher : batch) {
+                connection.exists(bytes(SECKILL_SHARDS_KEY + voucher.getVoucherId()));
+                for (int shard = 0; shard < SECKILL_MAX_SHARDS; shard++) {
+                    connection.exists(bytes(SeckillStockShards.stockKey(voucher.getVoucherId(), shard)));
+                }
+            }
+            return null;
+        });
+        // 2.未分片的券补充库存，分片数丢失的券恢复分片数
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < batch.size(); i++) {
+                SeckillVoucher voucher = batch.get(i);
+                int offset = i * keysPerVoucher;
+                if (Boolean.TRUE.equals(exists.get(offset))) {
+                    continue;
+                }
+                int shards = 0;
+                while (shards < SECKILL_MAX_SHARDS && Boolean.TRUE.equals(exists.get(offset + 1 + shards))) {
+                    shards++;
+                }
+                if (shards > 0) {
+                    log.warn("秒杀券{}的分片数丢失，按分片库存恢复为{}", voucher.getVoucherId(), shards);
+                    connection.setNX(bytes(SECKILL_SHARDS_KEY + voucher.getVoucherId()), bytes(String.valueOf(shards)));
+                } else {
+                    connection.setNX(bytes(SECKILL_STOCK_KEY + voucher.getVoucherId()), bytes(voucher.getStock().toString()));
+                }
+            }
+            return null;
+        });
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return 预热进度
+     */
+    public Map<String, Object> progress() {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("state", state);
+        progress.put("shops", shops.get());
+        progress.put("shopTypes", shopTypes.get());
+        progress.put("seckillVouchers", seckillVouchers.get());
+        progress.put("costMillis", costMillis);
+        return progress;
+    }
+}
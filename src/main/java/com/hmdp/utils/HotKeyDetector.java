@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 热点key探测
+ * 使用Count-Min Sketch统计key的访问次数，滑动窗口由多个1秒的sketch组成，每秒轮换一次
+ * 除正在统计的当前1秒外保留HOT_KEY_WINDOW_SECONDS个已完成的1秒，平均QPS只按已完成的部分计算
+ * 标记和取消标记都按平均QPS判断：达到HOT_KEY_QPS_THRESHOLD时标记为热点，
+ * 低于HOT_KEY_QPS_THRESHOLD * HOT_KEY_COOL_RATIO时取消标记，短时间的突发访问不会使标记反复变化
+ * 当前1秒内访问次数达到阈值的key作为候选，在轮换时计算平均QPS
+ */
+@Component
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+
+    private final AtomicLongArray[] windows = new AtomicLongArray[HOT_KEY_WINDOW_SECONDS + 1];
+
+    private volatile int current;
+
+    /**
+     * 当前的热点key及其最近一次统计的QPS
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 当前1秒内访问次数达到阈值、等待轮换时判断的key
+     */
+    private final Map<String, Boolean> candidates = new ConcurrentHashMap<>();
+
+    public HotKeyDetector() {
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new AtomicLongArray(DEPTH * WIDTH);
+        }
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void record(String key) {
+        AtomicLongArray window = windows[current];
+        long hash = MurmurHash.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long count = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * WIDTH + ((h1 + i * h2) & (WIDTH - 1));
+            count = Math.min(count, window.incrementAndGet(index));
+        }
+        if (count >= HOT_KEY_QPS_THRESHOLD && !hotKeys.containsKey(key)
+                && !candidates.containsKey(key) && candidates.size() < HOT_KEY_LOCAL_SIZE) {
+            candidates.put(key, Boolean.TRUE);
+        }
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * @return 整个窗口内(包括当前1秒)的估算访问次数
+     */
+    public long estimate(String key) {
+        return count(key, true);
+    }
+
+    /**
+     * @param includeCurrent 是否包括正在统计的当前1秒
+     */
+    private long count(String key, boolean includeCurrent) {
+        long hash = MurmurHash.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int skip = includeCurrent ? -1 : current;
+        long count = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * WIDTH + ((h1 + i * h2) & (WIDTH - 1));
+            long sum = 0;
+            for (int w = 0; w < windows.length; w++) {
+                if (w != skip) {
+                    sum += windows[w].get(index);
+                }
+            }
+            count = Math.min(count, sum);
+        }
+        return count;
+    }
+
+    public int hotKeyCount() {
+        return hotKeys.size();
+    }
+
+    /**
+     * @return 热点key及其QPS，按QPS从高到低排列
+     */
+    public Map<String, Long> hotKeys() {
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        hotKeys.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public void rotate() {
+        // 清空最旧的窗口作为新的当前窗口
+        int next = (current + 1) % windows.length;
+        AtomicLongArray window = windows[next];
+        for (int i = 0; i < window.length(); i++) {
+            window.set(i, 0);
+        }
+        current = next;
+        // 候选key的平均QPS达到阈值时标记为热点
+        for (String key : candidates.keySet()) {
+            candidates.remove(key);
+            long qps = qps(key);
+            if (qps >= HOT_KEY_QPS_THRESHOLD) {
+                hotKeys.put(key, qps);
+            }
+        }
+        // 重新计算热点key的QPS，降温的key取消标记
+        long coolThreshold = (long) (HOT_KEY_QPS_THRESHOLD * HOT_KEY_COOL_RATIO);
+        for (String key : hotKeys.keySet()) {
+            long qps = qps(key);
+            if (qps < coolThreshold) {
+                hotKeys.remove(key);
+            } else {
+                hotKeys.put(key, qps);
+            }
+        }
+    }
+
+    /**
+     * @return 已完成的HOT_KEY_WINDOW_SECONDS秒内的平均QPS，不包括刚清空的当前1秒
+     */
+    private long qps(String key) {
+        return count(key, false) / HOT_KEY_WINDOW_SECONDS;
+    }
+}
@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONException;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * JSON编解码器，与原有的缓存格式兼容
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final JsonCacheCodec INSTANCE = new JsonCacheCodec();
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return bytes.length > 0 && (bytes[0] == '{' || bytes[0] == '[' || bytes[0] == '"');
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        return encode(redisData);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        try {
+            return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+        } catch (JSONException e) {
+            // 数据损坏，按未命中处理
+            return null;
+        }
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type) {
+        RedisData redisData;
+        try {
+            redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+        } catch (JSONException e) {
+            return null;
+        }
+        if (!(redisData.getData() instanceof JSONObject)) {
+            return null;
+        }
+        redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+        return redisData;
+    }
+}
@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀订单状态，查询状态不访问数据库
+ * 状态保存在按订单id中的时间分桶的hash中：seckill:status:<id >>> 32>，field为id的低32位，value为一个字符
+ * 号段和snowflake两种策略的id高32位都是TIME_BEGIN起的秒数，同一秒内的订单在同一个桶中；
+ * 按低位分桶时snowflake的id低位是毫秒数、worker id和序列号，几乎每个订单一个桶
+ * 状态变化后通过redis频道通知所有节点，唤醒等待该订单的长轮询请求，每批订单只发送一条消息
+ */
+@Component
+public class OrderStatusTracker {
+
+    public static final String QUEUED = "queued";
+    public static final String PERSISTED = "persisted";
+    public static final String FAILED = "failed";
+
+    private static final String CODE_QUEUED = "0";
+    private static final String CODE_PERSISTED = "1";
+    private static final String CODE_FAILED = "2";
+
+    /**
+     * id中时间戳(秒)的起始位
+     */
+    private static final int TIMESTAMP_SHIFT = 32;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 本节点上等待状态变化的长轮询请求
+     */
+    private final Map<Long, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SECKILL_STATUS_CHANNEL));
+    }
+
+    /**
+     * 下单成功后标记为排队中，订单已落库时不覆盖
+     */
+    public void markQueued(long orderId) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] key = bytes(bucketKey(orderId));
+            connection.hSetNX(key, bytes(field(orderId)), bytes(CODE_QUEUED));
+            connection.expire(key, TimeUnit.DAYS.toSeconds(SECKILL_STATUS_TTL));
+            return null;
+        });
+    }
+
+    public void markPersisted(Collection<Long> orderIds) {
+        mark(orderIds, CODE_PERSISTED);
+    }
+
+    public void markFailed(Collection<Long> orderIds) {
+        mark(orderIds, CODE_FAILED);
+    }
+
+    private void mark(Collection<Long> orderIds, String code) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long orderId : orderIds) {
+                byte[] key = bytes(bucketKey(orderId));
+                connection.hSet(key, bytes(field(orderId)), bytes(code));
+                connection.expire(key, TimeUnit.DAYS.toSeconds(SECKILL_STATUS_TTL));
+            }
+            return null;
+        });
+        // 消息格式 状态码:订单id,订单id...
+        stringRedisTemplate.convertAndSend(SECKILL_STATUS_CHANNEL,
+                code + ":" + orderIds.stream().map(String::valueOf).collect(Collectors.joining(",")));
+    }
+
+    /**
+     * @return 订单状态，不存在或已过期时返回null
+     */
+    public String getStatus(long orderId) {
+        Object code = stringRedisTemplate.opsForHash().get(bucketKey(orderId), field(orderId));
+        return code == null ? null : toStatus(code.toString());
+    }
+
+    /**
+     * 查询订单状态，排队中时最多等待timeout秒，状态变化后立即返回
+     */
+    public DeferredResult<Result> await(long orderId, long timeout) {
+        DeferredResult<Result> result = new DeferredResult<>(TimeUnit.SECONDS.toMillis(timeout));
+        String status = getStatus(orderId);
+        if (!QUEUED.equals(status) || timeout <= 0) {
+            result.setResult(toResult(status));
+            return result;
+        }
+        Queue<DeferredResult<Result>> queue = waiters.computeIfAbsent(orderId, id -> new ConcurrentLinkedQueue<>());
+        queue.add(result);
+        result.onTimeout(() -> result.setResult(Result.ok(QUEUED)));
+        result.onCompletion(() -> {
+            queue.remove(result);
+            if (queue.isEmpty()) {
+                waiters.remove(orderId, queue);
+            }
+        });
+        // 注册前状态可能已经变化，再查询一次
+        String latest = getStatus(orderId);
+        if (!QUEUED.equals(latest)) {
+            result.setResult(toResult(latest));
+        }
+        return result;
+    }
+
+    private void onMessage(String message) {
+        int index = message.indexOf(':');
+        Result result = toResult(toStatus(message.substring(0, index)));
+        for (String id : StrUtil.split(message.substring(index + 1), ',')) {
+            Queue<DeferredResult<Result>> queue = waiters.get(Long.valueOf(id));
+            if (queue == null) {
+                continue;
+            }
+            DeferredResult<Result> waiter;
+            while ((waiter = queue.poll()) != null) {
+                waiter.setResult(result);
+            }
+        }
+    }
+
+    private static Result toResult(String status) {
+        return status == null ? Result.fail("订单不存在") : Result.ok(status);
+    }
+
+    private static String toStatus(String code) {
+        switch (code) {
+            case CODE_PERSISTED:
+                return PERSISTED;
+            case CODE_FAILED:
+                return FAILED;
+            default:
+                return QUEUED;
+        }
+    }
+
+    private static String bucketKey(long orderId) {
+        return SECKILL_STATUS_KEY + (orderId >>> TIMESTAMP_SHIFT);
+    }
+
+    private static String field(long orderId) {
+        return String.valueOf(orderId & ((1L << TIMESTAMP_SHIFT) - 1));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
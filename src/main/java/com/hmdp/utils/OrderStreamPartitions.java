@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import com.hmdp.config.SeckillOrderProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 订单stream分区
+ * 订单按用户id取模写入stream.orders:<p>，分区0沿用原来的stream.orders
+ * 各节点定时在seckill:consumers中写入心跳，按节点名排序后第i个节点负责 p % 节点数 == i 的分区，
+ * 节点增减时分区自动重新分配；分配切换期间两个节点可能同时读取同一分区，消费者组保证每条消息只投递一次
+ */
+@Slf4j
+@Component
+public class OrderStreamPartitions {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillOrderProperties seckillOrderProperties;
+
+    /**
+     * 节点标识，主机名+进程号，同时作为消费者名称的前缀
+     */
+    private final String nodeId = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+
+    /**
+     * 本节点负责的分区
+     */
+    private volatile List<Integer> owned = Collections.emptyList();
+
+    /**
+     * 最近一次心跳时存活的节点
+     */
+    private volatile List<String> nodes = Collections.emptyList();
+
+    public static String streamKey(int partition) {
+        return partition == 0 ? SECKILL_STREAM_KEY : SECKILL_STREAM_KEY + ":" + partition;
+    }
+
+    /**
+     * 用户的订单写入的stream
+     */
+    public String streamKeyOf(Long userId) {
+        return streamKey((int) Math.floorMod(userId, (long) seckillOrderProperties.getPartitions()));
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @param consumer 消费者名称，格式为 节点标识-线程序号 或 节点标识-recovery
+     * @return 消费者所属的节点是否存活
+     */
+    public boolean isAlive(String consumer) {
+        for (String node : nodes) {
+            if (consumer.startsWith(node + "-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 第index个消费线程负责的stream，本节点的分区在各线程间轮流分配
+     */
+    public List<String> streamsOf(int index, int threads) {
+        List<Integer> partitions = owned;
+        List<String> streams = new ArrayList<>();
+        for (int i = index; i < partitions.size(); i += threads) {
+            streams.add(streamKey(partitions.get(i)));
+        }
+        return streams;
+    }
+
+    @PostConstruct
+    private void init() {
+        // 创建各分区的消费者组，stream不存在时一并创建
+        for (int partition = 0; partition < seckillOrderProperties.getPartitions(); partition++) {
+            try {
+                stringRedisTemplate.opsForStream()
+                        .createGroup(streamKey(partition), ReadOffset.from("0"), SECKILL_STREAM_GROUP);
+            } catch (RedisSystemException e) {
+                if (!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                    throw e;
+                }
+            }
+        }
+        heartbeat();
+    }
+
+    /**
+     * 写入心跳，清理超时的节点并重新计算本节点负责的分区
+     */
+    @Scheduled(fixedRate = 5000)
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.opsForZSet().add(SECKILL_CONSUMERS_KEY, nodeId, now);
+        stringRedisTemplate.opsForZSet().removeRangeByScore(SECKILL_CONSUMERS_KEY, 0, now - SECKILL_CONSUMER_TTL);
+        Set<String> members = stringRedisTemplate.opsForZSet().range(SECKILL_CONSUMERS_KEY, 0, -1);
+        List<String> nodes = members == null ? new ArrayList<>() : new ArrayList<>(members);
+        Collections.sort(nodes);
+        this.nodes = Collections.unmodifiableList(nodes);
+        int index = nodes.indexOf(nodeId);
+        int nodeCount = nodes.size();
+        List<Integer> partitions = new ArrayList<>();
+        for (int partition = 0; partition < seckillOrderProperties.getPartitions(); partition++) {
+            if (partition % nodeCount == index) {
+                partitions.add(partition);
+            }
+        }
+        if (!partitions.equals(owned)) {
+            log.info("订单stream分区重新分配, node: {}, nodes: {}, partitions: {}", nodeId, nodeCount, partitions);
+            owned = Collections.unmodifiableList(partitions);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        // 主动下线，其他节点在下一次心跳时接管分区
+        stringRedisTemplate.opsForZSet().remove(SECKILL_CONSUMERS_KEY, nodeId);
+    }
+}
@@ -0,0 +1,278 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillOrderProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 订单stream的pending消息恢复
+ * 定时扫描本节点负责分区的pending-list，空闲超过重试间隔的消息(包括已下线消费者遗留的消息)由本节点认领并逐条重试，
+ * 重试间隔按投递次数指数增长，投递次数达到上限的消息连同失败原因移入死信stream
+ * 当前的spring-data-redis不支持XAUTOCLAIM，使用XPENDING + XCLAIM实现，XCLAIM的min-idle保证同一条消息只被一个节点认领
+ */
+@Slf4j
+@Component
+public class OrderStreamRecovery {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillOrderProperties seckillOrderProperties;
+
+    @Resource
+    private OrderStreamPartitions orderStreamPartitions;
+
+    @Lazy
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private OrderStatusTracker orderStatusTracker;
+
+    /**
+     * 各分区的stream长度、pending数量、未投递数量
+     */
+    private final Map<String, AtomicLong> backlogs = new HashMap<>();
+    private final Map<String, AtomicLong> pendings = new HashMap<>();
+    private final Map<String, AtomicLong> lags = new HashMap<>();
+    private final AtomicLong deadLetters = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        for (int partition = 0; partition < seckillOrderProperties.getPartitions(); partition++) {
+            String stream = OrderStreamPartitions.streamKey(partition);
+            String tag = String.valueOf(partition);
+            backlogs.put(stream, gauge("seckill.orders.backlog", "stream中保留的消息数", tag));
+            pendings.put(stream, gauge("seckill.orders.pending", "已投递未确认的消息数", tag));
+            lags.put(stream, gauge("seckill.orders.lag", "尚未投递给消费者的消息数，最多统计" + SECKILL_LAG_SCAN_LIMIT + "条", tag));
+        }
+        Gauge.builder("seckill.orders.dead", deadLetters, AtomicLong::get)
+                .description("死信stream中的消息数")
+                .register(meterRegistry);
+    }
+
+    private AtomicLong gauge(String name, String description, String partition) {
+        AtomicLong value = new AtomicLong();
+        Gauge.builder(name, value, AtomicLong::get)
+                .description(description)
+                .tag("partition", partition)
+                .register(meterRegistry);
+        return value;
+    }
+
+    /**
+     * 记录消息处理失败的原因，移入死信stream时一并写入
+     */
+    public void recordFailure(List<? extends MapRecord<String, ?, ?>> records, Exception e) {
+        String reason = StrUtil.maxLength(e.getClass().getSimpleName() + ": " + e.getMessage(), 200);
+        Map<String, String> failures = new HashMap<>(records.size());
+        for (MapRecord<String, ?, ?> record : records) {
+            failures.put(failureField(record.getStream(), record.getId().getValue()), reason);
+        }
+        stringRedisTemplate.opsForHash().putAll(SECKILL_FAILURES_KEY, failures);
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    public void recover() {
+        String consumer = orderStreamPartitions.getNodeId() + "-recovery";
+        for (String stream : orderStreamPartitions.streamsOf(0, 1)) {
+            try {
+                recover(stream, consumer);
+                removeDeadConsumers(stream);
+            } catch (Exception e) {
+                log.error("恢复pending订单异常, stream: {}", stream, e);
+            }
+        }
+    }
+
+    /**
+     * 删除已下线节点的消费者，消费者名称包含进程号，不删除时消费者组中的消费者随每次重启增加
+     * XGROUP DELCONSUMER会丢弃该消费者的pending消息，只删除pending消息已被认领完的消费者；
+     * 同时要求空闲超过节点心跳超时时间，刚启动、心跳尚未被本节点看到的节点的消费者不会被删除
+     */
+    private void removeDeadConsumers(String stream) {
+        StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(stream, SECKILL_STREAM_GROUP);
+        consumers.forEach(info -> {
+            if (info.pendingCount() == 0 && info.idleTimeMs() > SECKILL_CONSUMER_TTL
+                    && !orderStreamPartitions.isAlive(info.consumerName())) {
+                stringRedisTemplate.opsForStream()
+                        .deleteConsumer(stream, Consumer.from(SECKILL_STREAM_GROUP, info.consumerName()));
+                log.info("删除已下线的消费者, stream: {}, consumer: {}", stream, info.consumerName());
+            }
+        });
+    }
+
+    private void recover(String stream, String consumer) {
+        // 分页遍历整个pending-list，每页从上一页最后一条消息之后开始
+        Range<String> range = Range.unbounded();
+        while (true) {
+            // 1.查询pending-list XPENDING stream g1 start + n
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(stream, SECKILL_STREAM_GROUP, range, SECKILL_RECOVERY_BATCH);
+            if (pending.isEmpty()) {
+                return;
+            }
+            for (PendingMessage message : pending) {
+                recover(stream, consumer, message);
+            }
+            if (pending.size() < SECKILL_RECOVERY_BATCH) {
+                return;
+            }
+            RecordId last = pending.get(pending.size() - 1).getId();
+            range = Range.rightUnbounded(Range.Bound.inclusive(
+                    RecordId.of(last.getTimestamp(), last.getSequence() + 1).getValue()));
+        }
+    }
+
+    /**
+     * 空闲超过重试间隔的消息认领后重试，超过最大投递次数的移入死信stream
+     */
+    private void recover(String stream, String consumer, PendingMessage message) {
+        long deliveries = message.getTotalDeliveryCount();
+        Duration backoff = backoff(deliveries);
+        if (message.getElapsedTimeSinceLastDelivery().compareTo(backoff) < 0) {
+            return;
+        }
+        // 2.认领空闲超过重试间隔的消息 XCLAIM stream g1 consumer backoff id，已被其他节点认领时返回空
+        List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                ((StringRedisConnection) connection).xClaim(stream, SECKILL_STREAM_GROUP, consumer, backoff, message.getId()));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        StringRecord record = claimed.get(0);
+        if (deliveries >= seckillOrderProperties.getMaxDeliveries()) {
+            // 3.超过最大投递次数，移入死信stream
+            deadLetter(record, deliveries);
+        } else {
+            // 4.逐条重试，避免同一批中的异常消息影响其他消息
+            retry(record);
+        }
+    }
+
+    private Duration backoff(long deliveries) {
+        long base = seckillOrderProperties.getRetryBackoff().toMillis();
+        long max = seckillOrderProperties.getMaxRetryBackoff().toMillis();
+        long shift = Math.min(Math.max(deliveries - 1, 0), 20);
+        return Duration.ofMillis(Math.min(base << shift, max));
+    }
+
+    private void retry(StringRecord record) {
+        try {
+            VoucherOrder order = BeanUtil.fillBeanWithMapIgnoreCase(record.getValue(), new VoucherOrder(), true);
+            voucherOrderService.createVoucherOrder(order);
+            acknowledge(record);
+        } catch (Exception e) {
+            log.error("重试pending订单失败, stream: {}, id: {}", record.getStream(), record.getId(), e);
+            recordFailure(Collections.singletonList(record), e);
+        }
+    }
+
+    private void deadLetter(StringRecord record, long deliveries) {
+        String field = failureField(record.getStream(), record.getId().getValue());
+        Object reason = stringRedisTemplate.opsForHash().get(SECKILL_FAILURES_KEY, field);
+        Map<String, String> value = new HashMap<>(record.getValue());
+        value.put("stream", record.getStream());
+        value.put("recordId", record.getId().getValue());
+        value.put("deliveries", String.valueOf(deliveries));
+        value.put("reason", reason == null ? "超过最大投递次数" : reason.toString());
+        stringRedisTemplate.opsForStream().add(SECKILL_DLQ_KEY, value);
+        acknowledge(record);
+        String orderId = record.getValue().get("id");
+        if (orderId != null) {
+            orderStatusTracker.markFailed(Collections.singletonList(Long.valueOf(orderId)));
+        }
+        log.error("订单消息移入死信stream, stream: {}, id: {}, reason: {}", record.getStream(), record.getId(), value.get("reason"));
+    }
+
+    private void acknowledge(StringRecord record) {
+        stringRedisTemplate.opsForStream().acknowledge(record.getStream(), SECKILL_STREAM_GROUP, record.getId());
+        stringRedisTemplate.opsForHash().delete(SECKILL_FAILURES_KEY, failureField(record.getStream(), record.getId().getValue()));
+    }
+
+    private static String failureField(String stream, String id) {
+        return stream + "|" + id;
+    }
+
+    /**
+     * 刷新积压指标，gauge读取时不访问redis
+     */
+    @Scheduled(fixedRate = 10000)
+    public void refreshMetrics() {
+        for (Map.Entry<String, AtomicLong> entry : backlogs.entrySet()) {
+            String stream = entry.getKey();
+            try {
+                // XLEN
+                Long size = stringRedisTemplate.opsForStream().size(stream);
+                entry.getValue().set(size == null ? 0 : size);
+                // XPENDING stream g1
+                PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(stream, SECKILL_STREAM_GROUP);
+                pendings.get(stream).set(summary == null ? 0 : summary.getTotalPendingMessages());
+                // XINFO GROUPS，统计last-delivered-id之后的消息数
+                lags.get(stream).set(lag(stream));
+            } catch (Exception e) {
+                log.warn("刷新订单stream指标失败, stream: {}", stream, e);
+            }
+        }
+        Long dead = stringRedisTemplate.opsForStream().size(SECKILL_DLQ_KEY);
+        deadLetters.set(dead == null ? 0 : dead);
+    }
+
+    private long lag(String stream) {
+        String lastDelivered = stringRedisTemplate.opsForStream().groups(stream).stream()
+                .filter(group -> SECKILL_STREAM_GROUP.equals(group.groupName()))
+                .map(StreamInfo.XInfoGroup::lastDeliveredId)
+                .findFirst().orElse(null);
+        if (lastDelivered == null) {
+            return 0;
+        }
+        // 从last-delivered-id开始读取，不包括该消息本身
+        String from = lastDelivered;
+        List<StringRecord> records = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                ((StringRedisConnection) connection).xRange(stream, Range.closed(from, "+"),
+                        RedisZSetCommands.Limit.limit().count(SECKILL_LAG_SCAN_LIMIT + 1)));
+        if (records == null || records.isEmpty()) {
+            return 0;
+        }
+        int lag = records.size();
+        if (records.get(0).getId().getValue().equals(lastDelivered)) {
+            lag--;
+        }
+        return Math.min(lag, SECKILL_LAG_SCAN_LIMIT);
+    }
+}
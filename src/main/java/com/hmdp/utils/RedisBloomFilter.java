@@ -0,0 +1,283 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_CONFIRM_WINDOW;
+import static com.hmdp.utils.RedisConstants.BLOOM_REBUILD_TTL;
+
+/**
+ * 布隆过滤器，位数组保存在redis的bitmap中，本地保留一份副本用于快速判断
+ * 其他节点新增元素或重建时通过redis频道同步本地副本，并定时从redis重新加载，判断时只查询本地副本；
+ * 重新加载后的BLOOM_CONFIRM_WINDOW内，加载期间的新增消息可能已被覆盖，本地判断不存在时再以redis为准
+ * 重建期间新增的元素记录在journal中，重建完成后重放，不会被新的位数组覆盖
+ */
+public class RedisBloomFilter {
+
+    private static final String MESSAGE_ADD = "add:";
+    private static final String MESSAGE_RELOAD = "reload";
+
+    private static final DefaultRedisScript<Long> PUT_SCRIPT;
+
+    static {
+        PUT_SCRIPT = new DefaultRedisScript<>();
+        PUT_SCRIPT.setLocation(new ClassPathResource("bloom_put.lua"));
+        PUT_SCRIPT.setResultType(Long.class);
+    }
+
+    private final String key;
+    private final byte[] rawKey;
+    private final String rebuildingKey;
+    private final String journalKey;
+    private final long numBits;
+    private final int numHashFunctions;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private volatile AtomicLongArray bits;
+
+    /**
+     * 在此之前本地判断不存在时查询redis确认
+     */
+    private volatile long confirmUntil;
+
+    /**
+     * @param key redis中bitmap的key
+     * @param expectedInsertions 预计插入的元素数量
+     * @param fpp 期望的误判率，例如0.01
+     */
+    public RedisBloomFilter(String key, long expectedInsertions, double fpp, StringRedisTemplate stringRedisTemplate) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("布隆过滤器参数有误");
+        }
+        this.key = key;
+        this.rawKey = key.getBytes(StandardCharsets.UTF_8);
+        this.rebuildingKey = key + ":rebuilding";
+        this.journalKey = key + ":journal";
+        this.stringRedisTemplate = stringRedisTemplate;
+        // m = -n*ln(p) / (ln2)^2, k = m/n * ln2
+        long m = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, (m + 63) / 64 * 64);
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (numBits / 64));
+    }
+
+    public String getChannel() {
+        return key + ":sync";
+    }
+
+    /**
+     * 判断元素是否可能存在，不存在的id在本地直接拒绝，不访问redis
+     * @return false：一定不存在，true：可能存在
+     */
+    public boolean mightContain(Object value) {
+        long[] indexes = indexes(value);
+        if (containsAll(bits, indexes)) {
+            return true;
+        }
+        if (System.currentTimeMillis() >= confirmUntil) {
+            return false;
+        }
+        // 刚重新加载过，本地副本可能漏掉了加载期间其他节点新增的元素，以redis中的位数组为准
+        if (!containsInRedis(indexes)) {
+            return false;
+        }
+        setLocal(bits, indexes);
+        return true;
+    }
+
+    /**
+     * 只查询本地副本
+     */
+    boolean mightContainLocally(Object value) {
+        return containsAll(bits, indexes(value));
+    }
+
+    /**
+     * 添加元素，写入redis并通知其他节点，正在重建时同时记录到journal
+     */
+    public void put(Object value) {
+        long[] indexes = indexes(value);
+        String[] args = new String[indexes.length + 2];
+        args[0] = String.valueOf(value);
+        args[1] = BLOOM_REBUILD_TTL.toString();
+        for (int i = 0; i < indexes.length; i++) {
+            args[i + 2] = String.valueOf(indexes[i]);
+        }
+        stringRedisTemplate.execute(PUT_SCRIPT, Arrays.asList(key, rebuildingKey, journalKey), (Object[]) args);
+        setLocal(bits, indexes);
+        stringRedisTemplate.convertAndSend(getChannel(), MESSAGE_ADD + value);
+    }
+
+    /**
+     * 根据全量数据重建过滤器，先写入临时key再重命名，避免重建期间出现误拒
+     * 查询全量数据前标记重建开始，之后新增的元素在重命名后重放
+     * @param loader 查询全量数据
+     * @return 重建的元素数量
+     */
+    public int rebuild(Supplier<? extends Collection<?>> loader) {
+        stringRedisTemplate.delete(journalKey);
+        stringRedisTemplate.opsForValue().set(rebuildingKey, "1", BLOOM_REBUILD_TTL, TimeUnit.SECONDS);
+        try {
+            Collection<?> values = loader.get();
+            AtomicLongArray rebuilt = new AtomicLongArray(bits.length());
+            for (Object value : values) {
+                setLocal(rebuilt, indexes(value));
+            }
+            byte[] bitmap = toBitmap(rebuilt);
+            byte[] tmpKey = (key + ":tmp").getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.set(tmpKey, bitmap);
+                connection.rename(tmpKey, rawKey);
+                return null;
+            });
+            // 重放重建期间新增的元素，重命名之后新增的元素已直接写入新的位数组
+            Set<String> journal = stringRedisTemplate.opsForSet().members(journalKey);
+            if (journal != null && !journal.isEmpty()) {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (String value : journal) {
+                        long[] indexes = indexes(value);
+                        for (long index : indexes) {
+                            connection.setBit(rawKey, index, true);
+                        }
+                        setLocal(rebuilt, indexes);
+                    }
+                    return null;
+                });
+            }
+            bits = rebuilt;
+            stringRedisTemplate.convertAndSend(getChannel(), MESSAGE_RELOAD);
+            return values.size();
+        } finally {
+            stringRedisTemplate.delete(Arrays.asList(rebuildingKey, journalKey));
+        }
+    }
+
+    /**
+     * 从redis中加载位数组到本地副本，启动、收到重建通知及定时同步时调用
+     * @return redis中不存在过滤器时返回false
+     */
+    public boolean load() {
+        byte[] bitmap = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+        if (bitmap == null || bitmap.length == 0) {
+            return false;
+        }
+        confirmUntil = System.currentTimeMillis() + BLOOM_CONFIRM_WINDOW;
+        bits = fromBitmap(bitmap, bits.length());
+        return true;
+    }
+
+    /**
+     * 处理其他节点发来的同步消息
+     */
+    public void onMessage(String message) {
+        if (message.startsWith(MESSAGE_ADD)) {
+            setLocal(bits, indexes(message.substring(MESSAGE_ADD.length())));
+        } else if (MESSAGE_RELOAD.equals(message)) {
+            load();
+        }
+    }
+
+    private boolean containsInRedis(long[] indexes) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long index : indexes) {
+                connection.getBit(rawKey, index);
+            }
+            return null;
+        });
+        for (Object result : results) {
+            if (!Boolean.TRUE.equals(result)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long getNumBits() {
+        return numBits;
+    }
+
+    int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    long[] indexes(Object value) {
+        // 使用两个哈希值组合出k个哈希函数 (Kirsch-Mitzenmacher)
+        long[] hash = MurmurHash.hash128(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        long[] indexes = new long[numHashFunctions];
+        long combined = hash[0];
+        for (int i = 0; i < numHashFunctions; i++) {
+            indexes[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += hash[1];
+        }
+        return indexes;
+    }
+
+    private static boolean containsAll(AtomicLongArray source, long[] indexes) {
+        for (long index : indexes) {
+            if ((source.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void setLocal(AtomicLongArray target, long[] indexes) {
+        for (long index : indexes) {
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = target.get(word);
+            } while ((old & mask) == 0 && !target.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    // redis的bitmap中，偏移量0对应第一个字节的最高位
+    static byte[] toBitmap(AtomicLongArray source) {
+        byte[] bitmap = new byte[source.length() * 8];
+        for (int i = 0; i < source.length(); i++) {
+            long word = source.get(i);
+            if (word == 0) {
+                continue;
+            }
+            for (int bit = 0; bit < 64; bit++) {
+                if ((word & (1L << bit)) != 0) {
+                    long index = ((long) i << 6) + bit;
+                    bitmap[(int) (index >>> 3)] |= (byte) (0x80 >>> (index & 7));
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    static AtomicLongArray fromBitmap(byte[] bitmap, int words) {
+        AtomicLongArray target = new AtomicLongArray(words);
+        int bytes = Math.min(bitmap.length, words * 8);
+        for (int i = 0; i < bytes; i++) {
+            int b = bitmap[i] & 0xFF;
+            if (b == 0) {
+                continue;
+            }
+            for (int bit = 0; bit < 8; bit++) {
+                if ((b & (0x80 >>> bit)) != 0) {
+                    long index = ((long) i << 3) + bit;
+                    int word = (int) (index >>> 6);
+                    target.set(word, target.get(word) | (1L << index));
+                }
+            }
+        }
+        return target;
+    }
+}
@@ -10,17 +10,98 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_SHOP_LOGIC_TTL = 5L;
+    public static final Integer CACHE_SHOP_LOCAL_SIZE = 1000;
+    public static final String CACHE_SHOP_RESP_KEY = "cache:shop-resp:";
+    public static final Long CACHE_SHOP_RESP_LOCAL_TTL = 1L;
+    public static final Long CACHE_SHOP_LOCAL_TTL = 60L;
 
-    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final Long BLOOM_REBUILD_TTL = 300L;
+    public static final Long BLOOM_CONFIRM_WINDOW = 5000L;
+
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type:list";
+    public static final Long CACHE_SHOP_TYPE_TTL = 30L;
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop-type:version";
 
     public static final Integer SHOP_TYPE_COUNT = 10;
 
+    public static final Integer CACHE_REBUILD_THREADS = 5;
+    public static final Integer CACHE_REBUILD_QUEUE_CAPACITY = 1000;
+
+    public static final Integer CACHE_WARM_UP_BATCH_SIZE = 500;
+    public static final Long CACHE_WARM_UP_SHOP_TTL = 10L;
+
+    public static final Double EARLY_REFRESH_BETA = 1.0;
+    public static final Long EARLY_REFRESH_DEFAULT_COST = 100L;
+
+    public static final Integer HOT_KEY_WINDOW_SECONDS = 10;
+    public static final Long HOT_KEY_QPS_THRESHOLD = 500L;
+    public static final Double HOT_KEY_COOL_RATIO = 0.5;
+    public static final Integer HOT_KEY_LOCAL_SIZE = 1000;
+    public static final Long HOT_KEY_LOCAL_TTL = 1000L;
+
+    public static final Integer CACHE_OUTBOX_BATCH_SIZE = 100;
+    public static final Long CACHE_OUTBOX_DELAY_DELETE = 1000L;
+    public static final Integer CACHE_OUTBOX_MAX_RETRIES = 10;
+    public static final Long CACHE_OUTBOX_MAX_BACKOFF = 60L;
+
+    public static final Double TTL_JITTER_RATIO = 0.1;
+    public static final Integer TTL_HOT_FACTOR = 2;
+    public static final Double TTL_UPDATE_FACTOR = 0.5;
+    public static final Integer TTL_UPDATE_THRESHOLD = 3;
+    public static final Long TTL_UPDATE_WINDOW = 10L;
+    public static final Integer TTL_UPDATE_CAPACITY = 10000;
+
+    public static final Integer CACHE_ASYNC_DB_THREADS = 10;
+    public static final Integer CACHE_ASYNC_DB_QUEUE_CAPACITY = 1000;
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final Long SECKILL_SOLD_OUT_TTL = 5000L;
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_SHARDED_KEY = "seckill:sharded";
+    public static final String SECKILL_OUTBOX_KEY = "seckill:outbox:";
+    public static final Long SECKILL_OUTBOX_DELAY = 5000L;
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    public static final String SECKILL_BUYERS_KEY = "seckill:buyers:";
+    public static final String SECKILL_PURCHASERS_KEY = "seckill:purchasers:";
+    public static final String SECKILL_PURCHASERS_CHANNEL = "seckill:purchasers";
+    public static final Integer SECKILL_BUYERS_CHUNK_BITS = 20;
+    public static final Integer SECKILL_MIGRATE_BATCH = 1000;
+    public static final String SECKILL_VOUCHER_CHANNEL = "seckill:voucher";
+    public static final Integer SECKILL_META_MISSING_SIZE = 10000;
+    public static final Long SECKILL_META_MISSING_TTL = 60000L;
+    public static final String SECKILL_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_STREAM_GROUP = "g1";
+    public static final String SECKILL_CONSUMERS_KEY = "seckill:consumers";
+    public static final Long SECKILL_CONSUMER_TTL = 15000L;
+    public static final String SECKILL_DLQ_KEY = "stream.orders.dlq";
+    public static final String SECKILL_FAILURES_KEY = "stream.orders.failures";
+    public static final Integer SECKILL_RECOVERY_BATCH = 100;
+    public static final Integer SECKILL_LAG_SCAN_LIMIT = 1000;
+    public static final String SECKILL_STATUS_KEY = "seckill:status:";
+    public static final String SECKILL_STATUS_CHANNEL = "seckill:status";
+    public static final Long SECKILL_STATUS_TTL = 1L;
+    public static final Long SECKILL_STATUS_MAX_WAIT = 30L;
+    public static final Integer SECKILL_MAX_SHARDS = 8;
+    public static final Integer SECKILL_SHARD_MIN_STOCK = 100;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+
+    public static final String ID_KEY = "icr:";
+    public static final Long ID_SEGMENT_STEP = 1000L;
+    public static final Double ID_SEGMENT_PREFETCH_RATIO = 0.2;
+    public static final String ID_WORKER_KEY = "icr:worker:";
+    public static final Long ID_WORKER_TTL = 30L;
 }
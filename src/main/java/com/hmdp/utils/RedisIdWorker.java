@@ -1,13 +1,31 @@
 package com.hmdp.utils;
 
+import com.hmdp.config.IdWorkerProperties;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 全局唯一id：31位时间戳(秒) + 32位序列号，序列号按天自增
+ * 号段模式：每次用INCRBY从redis领取ID_SEGMENT_STEP个序列号，本地用AtomicLong分配，
+ * 号段剩余ID_SEGMENT_PREFETCH_RATIO时异步领取下一个号段，正常情况下nextId不访问redis
+ * 号段属于领取时的日期，跨天后丢弃旧号段，保证同一秒内不会出现重复的序列号
+ * id.strategy配置为snowflake时改由SnowflakeIdGenerator在本地生成
+ */
 @Component
 public class RedisIdWorker {
 
@@ -15,22 +33,143 @@ public class RedisIdWorker {
 
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IdWorkerProperties idWorkerProperties;
+
+    @Resource
+    private SnowflakeIdGenerator snowflakeIdGenerator;
+
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public long nextId(String keyPrefix) {
+        if (idWorkerProperties.getStrategy() == IdWorkerProperties.Strategy.SNOWFLAKE) {
+            return snowflakeIdGenerator.nextId();
+        }
+        // 1.生成时间戳
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - TIME_BEGIN;
+
+        // 2.从本地号段获取序列号
+        long count = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(now.toLocalDate().toEpochDay());
+
+        // 拼接并返回
+        return timestamp << COUNT_BITS | count;
+    }
+
+    /**
+     * 每次都访问redis获取序列号，用于对比号段模式
+     */
+    public long nextIdPerRequest(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
         long timestamp = nowSecond - TIME_BEGIN;
 
         // 2.获取序列号
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = now.format(DATE_FORMATTER);
+        long count = stringRedisTemplate.opsForValue().increment(ID_KEY + keyPrefix + ":" + date);
 
         // 拼接并返回
-        return timestamp << COUNT_BITS | count ;
+        return timestamp << COUNT_BITS | count;
+    }
+
+    /**
+     * 领取一个号段 INCRBY icr:<prefix>:<date> step
+     */
+    private Segment lease(String keyPrefix, long epochDay) {
+        String date = LocalDate.ofEpochDay(epochDay).format(DATE_FORMATTER);
+        Long end = stringRedisTemplate.opsForValue().increment(ID_KEY + keyPrefix + ":" + date, ID_SEGMENT_STEP);
+        if (end == null) {
+            throw new IllegalStateException("领取id号段失败: " + keyPrefix);
+        }
+        return new Segment(epochDay, end - ID_SEGMENT_STEP + 1, end + 1);
+    }
+
+    /**
+     * 号段 [cursor, end)
+     */
+    private static class Segment {
+        private final long epochDay;
+        private final AtomicLong cursor;
+        private final long end;
+        /**
+         * 分配到该序列号时触发预取
+         */
+        private final long prefetchAt;
+
+        Segment(long epochDay, long start, long end) {
+            this.epochDay = epochDay;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = end - Math.max(1, (long) ((end - start) * ID_SEGMENT_PREFETCH_RATIO));
+        }
     }
 
+    /**
+     * 一个key前缀的当前号段和预取的下一个号段
+     */
+    private class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile CompletableFuture<Segment> next;
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(long epochDay) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.epochDay == epochDay) {
+                    long count = segment.cursor.getAndIncrement();
+                    if (count < segment.end) {
+                        if (count == segment.prefetchAt) {
+                            // 每个号段只有一个线程会分配到该序列号，不会重复预取
+                            next = CompletableFuture.supplyAsync(() -> lease(keyPrefix, epochDay), prefetchExecutor);
+                        }
+                        return count;
+                    }
+                }
+                // 号段用完或已跨天，切换号段后重试
+                switchSegment(segment, epochDay);
+            }
+        }
 
+        private synchronized void switchSegment(Segment exhausted, long epochDay) {
+            if (current != exhausted) {
+                // 其他线程已经切换
+                return;
+            }
+            CompletableFuture<Segment> prefetched = next;
+            next = null;
+            if (prefetched != null) {
+                try {
+                    Segment segment = prefetched.join();
+                    if (segment.epochDay == epochDay) {
+                        current = segment;
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    // 预取失败，同步领取
+                }
+            }
+            current = lease(keyPrefix, epochDay);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        prefetchExecutor.shutdown();
+    }
 }
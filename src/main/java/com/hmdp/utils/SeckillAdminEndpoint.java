@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import com.hmdp.service.IVoucherService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * /actuator/seckill，秒杀券的运维操作，与/actuator/cache一样只在管理端口上提供：
+ * POST /actuator/seckill/{voucherId}/purchasers-bitmap 改为用位图记录已购买用户并迁移已有的用户，返回迁移的用户数
+ */
+@Component
+@Endpoint(id = "seckill")
+public class SeckillAdminEndpoint {
+
+    @Lazy
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * @return 未知的action返回null，响应404
+     */
+    @WriteOperation
+    public Object execute(@Selector Long voucherId, @Selector String action) {
+        if ("purchasers-bitmap".equals(action)) {
+            return voucherService.migratePurchasersToBitmap(voucherId);
+        }
+        return null;
+    }
+}
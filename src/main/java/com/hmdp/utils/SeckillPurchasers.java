@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀券已购买用户的记录方式，按券选择
+ * set：seckill:order:<id>中保存用户id字符串，用户多时每个用户占用几十字节
+ * bitmap：按用户id分段的位图seckill:buyers:<id>:<userId >> 20>，每个用户占1位，每段最多128KB
+ * 分片库存模式下两种结构都带有分片的hash tag
+ * lua脚本总是同时检查两种结构，只按配置决定写入哪一种，因此迁移过程中或节点配置尚未同步时也能保证一人一单
+ */
+@Component
+public class SeckillPurchasers {
+
+    public static final String SET = "set";
+    public static final String BITMAP = "bitmap";
+
+    private static final long CHUNK_MASK = (1L << SECKILL_BUYERS_CHUNK_BITS) - 1;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 各券是否使用位图，配置变化时通过频道通知各节点清除
+     */
+    private final Map<Long, Boolean> bitmaps = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> bitmaps.remove(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(SECKILL_PURCHASERS_CHANNEL));
+    }
+
+    /**
+     * @return encoding为null(使用set)、set或bitmap时返回true
+     */
+    public static boolean isValid(String encoding) {
+        return encoding == null || SET.equals(encoding) || BITMAP.equals(encoding);
+    }
+
+    /**
+     * 设置券的记录方式并通知各节点
+     * @param encoding set或bitmap，null时为set
+     */
+    public void init(Long voucherId, String encoding) {
+        if (!isValid(encoding)) {
+            throw new IllegalArgumentException("不支持的记录方式：" + encoding);
+        }
+        boolean bitmap = BITMAP.equals(encoding);
+        stringRedisTemplate.opsForValue().set(SECKILL_PURCHASERS_KEY + voucherId, bitmap ? BITMAP : SET);
+        bitmaps.put(voucherId, bitmap);
+        stringRedisTemplate.convertAndSend(SECKILL_PURCHASERS_CHANNEL, voucherId.toString());
+    }
+
+    public boolean isBitmap(Long voucherId) {
+        return bitmaps.computeIfAbsent(voucherId,
+                id -> BITMAP.equals(stringRedisTemplate.opsForValue().get(SECKILL_PURCHASERS_KEY + id)));
+    }
+
+    /**
+     * @param shard 分片序号，非分片模式传null
+     */
+    public static String setKey(Long voucherId, Integer shard) {
+        return shard == null ? SECKILL_ORDER_KEY + voucherId : SeckillStockShards.orderKey(voucherId, shard);
+    }
+
+    /**
+     * @param shard 分片序号，非分片模式传null
+     */
+    public static String bitmapKey(Long voucherId, Integer shard, long userId) {
+        String tag = shard == null ? voucherId.toString() : "{" + voucherId + ":" + shard + "}";
+        return SECKILL_BUYERS_KEY + tag + ":" + (userId >>> SECKILL_BUYERS_CHUNK_BITS);
+    }
+
+    public static long offset(long userId) {
+        return userId & CHUNK_MASK;
+    }
+
+    /**
+     * lua脚本参数：userId、voucherId、orderId、位图偏移量、是否写入位图
+     */
+    public String[] scriptArgs(Long voucherId, Long userId, long orderId) {
+        return new String[]{userId.toString(), voucherId.toString(), String.valueOf(orderId),
+                String.valueOf(offset(userId)), isBitmap(voucherId) ? "1" : "0"};
+    }
+
+    /**
+     * 撤销用户的购买记录
+     */
+    public void remove(Long voucherId, Integer shard, Long userId) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.sRem(bytes(setKey(voucherId, shard)), bytes(userId.toString()));
+            connection.setBit(bytes(bitmapKey(voucherId, shard, userId)), offset(userId), false);
+            return null;
+        });
+    }
+
+    /**
+     * 把券切换为位图记录，并把set中已有的用户迁移到位图
+     * 每批先写入位图再从set中删除，迁移期间下单的检查总能在其中一种结构中找到用户
+     * @param shards 库存分片数
+     * @return 迁移的用户数
+     */
+    public long migrateToBitmap(Long voucherId, int shards) {
+        init(voucherId, BITMAP);
+        long moved = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            Integer tag = shards > 1 ? shard : null;
+            String setKey = setKey(voucherId, tag);
+            // 未同步配置的节点可能还在写入set，重复扫描直到set为空
+            for (int round = 0; round < 10; round++) {
+                moved += migrate(voucherId, tag, setKey);
+                Long size = stringRedisTemplate.opsForSet().size(setKey);
+                if (size == null || size == 0) {
+                    break;
+                }
+            }
+        }
+        return moved;
+    }
+
+    private long migrate(Long voucherId, Integer shard, String setKey) {
+        long moved = 0;
+        List<String> batch = new ArrayList<>(SECKILL_MIGRATE_BATCH);
+        ScanOptions options = ScanOptions.scanOptions().count(SECKILL_MIGRATE_BATCH).build();
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(setKey, options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= SECKILL_MIGRATE_BATCH) {
+                    moved += flush(voucherId, shard, setKey, batch);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return moved + flush(voucherId, shard, setKey, batch);
+    }
+
+    private int flush(Long voucherId, Integer shard, String setKey, List<String> members) {
+        if (members.isEmpty()) {
+            return 0;
+        }
+        // 同一连接上按顺序执行，SETBIT先于SREM
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String member : members) {
+                long userId = Long.parseLong(member);
+                connection.setBit(bytes(bitmapKey(voucherId, shard, userId)), offset(userId), true);
+            }
+            connection.sRem(bytes(setKey), members.stream().map(SeckillPurchasers::bytes).toArray(byte[][]::new));
+            return null;
+        });
+        int size = members.size();
+        members.clear();
+        return size;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,214 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ArrayUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存分片
+ * 库存拆分到多个key，key中带有hash tag，集群模式下各分片可以落在不同的节点上
+ * 用户根据id固定属于一个分片，一人一单只需要在该分片上判断；该分片库存不足时再从其他分片扣减
+ * 分片数为1时使用原来的seckill:stock:<id>和seckill:order:<id>
+ * 订单消息队列按用户分区，与分片的hash tag不同，脚本中不能直接写入，否则集群模式下报CROSSSLOT；
+ * 脚本把订单记录到同一hash tag的seckill:outbox:{id:shard}，返回后再写入消息队列并删除记录，
+ * 写入前节点宕机时由定时任务补发，重复的消息在创建订单时按订单id去重
+ */
+@Slf4j
+@Component
+public class SeckillStockShards {
+
+    /**
+     * 下单结果，与skillvoucher.lua一致：0：成功；1：库存不足；2：重复下单；4：未开始；5：已结束
+     */
+    public static final int OK = 0;
+    public static final int SOLD_OUT = 1;
+    public static final int DUPLICATE = 2;
+    public static final int NOT_STARTED = 4;
+    public static final int ENDED = 5;
+    private static final int SHARD_EMPTY = 3;
+
+    private static final DefaultRedisScript<Long> SHARD_SCRIPT;
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+
+    static {
+        SHARD_SCRIPT = new DefaultRedisScript<>();
+        SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SHARD_SCRIPT.setResultType(Long.class);
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_shard_take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillPurchasers seckillPurchasers;
+
+    @Resource
+    private SoldOutFlags soldOutFlags;
+
+    @Resource
+    private OrderStreamPartitions orderStreamPartitions;
+
+    /**
+     * 各券的分片数，创建后不会变化
+     */
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    /**
+     * 根据库存计算默认的分片数，库存越多分片越多
+     */
+    public static int defaultShards(int stock) {
+        return Math.max(1, Math.min(SECKILL_MAX_SHARDS, stock / SECKILL_SHARD_MIN_STOCK));
+    }
+
+    /**
+     * 初始化库存，库存平均分配到各分片，余数分配给前面的分片
+     * 写入库存后清除各节点的售罄标记
+     */
+    public void init(Long voucherId, int stock, int shards) {
+        if (shards <= 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+            shardCounts.put(voucherId, 1);
+        } else {
+            for (int shard = 0; shard < shards; shard++) {
+                int shardStock = stock / shards + (shard < stock % shards ? 1 : 0);
+                stringRedisTemplate.opsForValue().set(stockKey(voucherId, shard), String.valueOf(shardStock));
+            }
+            stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+            // 登记分片的券，定时补发各分片中未写入消息队列的订单
+            stringRedisTemplate.opsForSet().add(SECKILL_SHARDED_KEY, voucherId.toString());
+            shardCounts.put(voucherId, shards);
+        }
+        soldOutFlags.clear(voucherId);
+    }
+
+    public int shardCount(Long voucherId) {
+        return shardCounts.computeIfAbsent(voucherId, id -> {
+            String shards = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + id);
+            return StrUtil.isBlank(shards) ? 1 : Integer.parseInt(shards);
+        });
+    }
+
+    public static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String windowKey(Long voucherId, int shard) {
+        return SECKILL_WINDOW_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String outboxKey(Long voucherId, int shard) {
+        return SECKILL_OUTBOX_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 在分片库存上下单
+     * @param streamKey 订单消息队列
+     * @return OK、SOLD_OUT、DUPLICATE、NOT_STARTED或ENDED
+     */
+    public int order(Long voucherId, int shards, Long userId, long orderId, String streamKey) {
+        String[] args = ArrayUtil.append(seckillPurchasers.scriptArgs(voucherId, userId, orderId),
+                String.valueOf(System.currentTimeMillis()));
+        int home = (int) Math.floorMod(userId, (long) shards);
+        // 1.在用户所属的分片上判断一人一单并扣减库存
+        int result = stringRedisTemplate.execute(SHARD_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home), outboxKey(voucherId, home),
+                        SeckillPurchasers.bitmapKey(voucherId, home, userId), windowKey(voucherId, home)),
+                (Object[]) args).intValue();
+        if (result == OK) {
+            send(voucherId, home, userId, String.valueOf(orderId), streamKey);
+        }
+        if (result != SHARD_EMPTY) {
+            return result;
+        }
+        // 2.所属分片库存不足，依次尝试其他分片，用户已在所属分片占位
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            result = stringRedisTemplate.execute(TAKE_SCRIPT,
+                    Arrays.asList(stockKey(voucherId, shard), outboxKey(voucherId, shard), windowKey(voucherId, shard)),
+                    (Object[]) args).intValue();
+            if (result == OK) {
+                send(voucherId, shard, userId, String.valueOf(orderId), streamKey);
+                return OK;
+            }
+            if (result == NOT_STARTED || result == ENDED) {
+                // 尝试其他分片期间秒杀结束，撤销占位
+                seckillPurchasers.remove(voucherId, home, userId);
+                return result;
+            }
+        }
+        // 3.全部售罄，撤销占位
+        seckillPurchasers.remove(voucherId, home, userId);
+        return SOLD_OUT;
+    }
+
+    /**
+     * 把分片中记录的订单写入消息队列，再删除记录
+     * 写入失败时记录保留，由relayOutbox补发，下单结果不受影响
+     */
+    private void send(Long voucherId, int shard, Long userId, String orderId, String streamKey) {
+        try {
+            Map<String, String> value = new HashMap<>(4);
+            value.put("userId", userId.toString());
+            value.put("voucherId", voucherId.toString());
+            value.put("id", orderId);
+            stringRedisTemplate.opsForStream().add(StreamRecords.string(value).withStreamKey(streamKey));
+            stringRedisTemplate.opsForHash().delete(outboxKey(voucherId, shard), orderId);
+        } catch (Exception e) {
+            log.error("订单写入消息队列失败，等待补发, voucherId: {}, orderId: {}", voucherId, orderId, e);
+        }
+    }
+
+    /**
+     * 补发各分片中超过SECKILL_OUTBOX_DELAY仍未写入消息队列的订单
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void relayOutbox() {
+        Set<String> voucherIds = stringRedisTemplate.opsForSet().members(SECKILL_SHARDED_KEY);
+        if (voucherIds == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() - SECKILL_OUTBOX_DELAY;
+        for (String id : voucherIds) {
+            Long voucherId = Long.valueOf(id);
+            for (int shard = 0; shard < shardCount(voucherId); shard++) {
+                try {
+                    Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(outboxKey(voucherId, shard));
+                    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+                        // 记录的值为 userId:下单时间
+                        String[] value = entry.getValue().toString().split(":");
+                        if (Long.parseLong(value[1]) > deadline) {
+                            continue;
+                        }
+                        Long userId = Long.valueOf(value[0]);
+                        log.warn("补发订单消息, voucherId: {}, orderId: {}", voucherId, entry.getKey());
+                        send(voucherId, shard, userId, entry.getKey().toString(), orderStreamPartitions.streamKeyOf(userId));
+                    }
+                } catch (Exception e) {
+                    log.error("补发订单消息异常, voucherId: {}, shard: {}", voucherId, shard, e);
+                }
+            }
+        }
+    }
+}
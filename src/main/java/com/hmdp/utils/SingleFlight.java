@@ -0,0 +1,49 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并：同一个JVM内对同一个key的并发加载只执行一次，其余线程等待同一个结果
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, call);
+        if (inFlight != null) {
+            // 已有线程在加载 等待其结果
+            return (T) await(inFlight);
+        }
+        try {
+            T value = loader.get();
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    private Object await(CompletableFuture<Object> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
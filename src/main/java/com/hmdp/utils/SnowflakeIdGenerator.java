@@ -0,0 +1,177 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import com.hmdp.config.IdWorkerProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 本地id生成器，启动后生成id不访问网络
+ * 高32位与RedisIdWorker相同，为TIME_BEGIN起的秒数(按本地时间计算)，两种策略生成的id按秒有序；
+ * 低32位：10位秒内毫秒数 + 10位worker id + 12位毫秒内序列号
+ * worker id在启动时通过SET NX EX从redis租用并定时续期，租约可能已过期时拒绝生成id，避免与接管该worker id的节点重复
+ */
+@Slf4j
+@Component
+public class SnowflakeIdGenerator {
+
+    private static final long TIME_BEGIN = 1672531200;
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_WORKERS = 1 << WORKER_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("id_worker_lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IdWorkerProperties idWorkerProperties;
+
+    private final String owner = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+
+    private volatile int workerId = -1;
+
+    /**
+     * 租约的本地截止时间，续期成功时延长
+     */
+    private volatile long leaseDeadline;
+
+    private long lastMillis = -1;
+    private long sequence;
+
+    @PostConstruct
+    private void init() {
+        if (idWorkerProperties.getStrategy() == IdWorkerProperties.Strategy.SNOWFLAKE) {
+            lease();
+        }
+    }
+
+    /**
+     * 从节点标识对应的位置开始依次尝试租用worker id
+     */
+    private synchronized void lease() {
+        int start = Math.floorMod(owner.hashCode(), MAX_WORKERS);
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            int candidate = (start + i) % MAX_WORKERS;
+            long now = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + candidate, owner, ID_WORKER_TTL, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                workerId = candidate;
+                leaseDeadline = now + TimeUnit.SECONDS.toMillis(ID_WORKER_TTL);
+                log.info("租用worker id: {}, owner: {}", candidate, owner);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的worker id");
+    }
+
+    /**
+     * 续期worker id，续期失败说明已被其他节点接管，重新租用
+     */
+    @Scheduled(fixedRate = 10000)
+    public void renew() {
+        int current = workerId;
+        if (current < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long result = stringRedisTemplate.execute(LEASE_SCRIPT,
+                Collections.singletonList(ID_WORKER_KEY + current), owner, ID_WORKER_TTL.toString());
+        if (result != null && result == 1) {
+            leaseDeadline = now + TimeUnit.SECONDS.toMillis(ID_WORKER_TTL);
+            return;
+        }
+        log.warn("worker id {} 续期失败，重新租用", current);
+        synchronized (this) {
+            workerId = -1;
+            lease();
+        }
+    }
+
+    public synchronized long nextId() {
+        if (workerId < 0 || System.currentTimeMillis() >= leaseDeadline) {
+            throw new IllegalStateException("worker id租约已失效");
+        }
+        long millis = currentMillis();
+        if (millis < lastMillis) {
+            millis = waitForClock(millis);
+        }
+        if (millis == lastMillis) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                // 当前毫秒的序列号用完，等待下一毫秒
+                while ((millis = currentMillis()) <= lastMillis) {
+                    Thread.yield();
+                }
+            }
+        } else {
+            sequence = 0;
+        }
+        lastMillis = millis;
+        long seconds = millis / 1000 - TIME_BEGIN;
+        long millisOfSecond = millis % 1000;
+        return seconds << 32 | millisOfSecond << (WORKER_BITS + SEQUENCE_BITS) | (long) workerId << SEQUENCE_BITS | sequence;
+    }
+
+    /**
+     * 时钟回拨时按配置等待或失败
+     */
+    private long waitForClock(long millis) {
+        long rollback = lastMillis - millis;
+        if (idWorkerProperties.getClockRollback() == IdWorkerProperties.ClockRollback.FAIL
+                || rollback > idWorkerProperties.getMaxRollbackWait().toMillis()) {
+            throw new IllegalStateException("时钟回拨" + rollback + "ms，拒绝生成id");
+        }
+        log.warn("时钟回拨{}ms，等待时钟追上", rollback);
+        while ((millis = currentMillis()) < lastMillis) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待时钟追上时被中断", e);
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * 本地时间的毫秒数，与RedisIdWorker中LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)的口径一致
+     */
+    long currentMillis() {
+        long now = System.currentTimeMillis();
+        return now + TimeZone.getDefault().getOffset(now);
+    }
+
+    @PreDestroy
+    private void release() {
+        int current = workerId;
+        if (current >= 0) {
+            stringRedisTemplate.execute(LEASE_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + current), owner, "0");
+        }
+    }
+}
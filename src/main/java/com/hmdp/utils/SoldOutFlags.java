@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_TTL;
+
+/**
+ * 秒杀券售罄标记
+ * 某个节点发现库存不足后通过redis频道通知所有节点，之后的请求在本地直接拒绝，不再访问redis
+ * 写入库存时清除标记；标记在SECKILL_SOLD_OUT_TTL后失效，漏掉清除通知或库存被其他方式恢复时，
+ * 失效后的请求重新由redis判断，仍然售罄时再次标记
+ */
+@Component
+public class SoldOutFlags {
+
+    private static final String MESSAGE_SET = "set:";
+    private static final String MESSAGE_CLEAR = "clear:";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 售罄的券及标记的失效时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt > System.currentTimeMillis()) {
+            return true;
+        }
+        soldOut.remove(voucherId, expireAt);
+        return false;
+    }
+
+    /**
+     * 标记售罄并通知其他节点，本节点的标记仍有效时不再重复通知
+     */
+    public void markSoldOut(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Long previous = soldOut.put(voucherId, now + SECKILL_SOLD_OUT_TTL);
+        if (previous == null || previous <= now) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, MESSAGE_SET + voucherId);
+        }
+    }
+
+    /**
+     * 清除售罄标记并通知其他节点
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, MESSAGE_CLEAR + voucherId);
+    }
+
+    private void onMessage(String message) {
+        if (message.startsWith(MESSAGE_SET)) {
+            soldOut.put(Long.valueOf(message.substring(MESSAGE_SET.length())), System.currentTimeMillis() + SECKILL_SOLD_OUT_TTL);
+        } else if (message.startsWith(MESSAGE_CLEAR)) {
+            soldOut.remove(Long.valueOf(message.substring(MESSAGE_CLEAR.length())));
+        }
+    }
+}
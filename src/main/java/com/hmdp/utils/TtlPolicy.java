@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 缓存过期时间策略
+ * 1. 基础时间：cache.ttl.prefixes中按前缀配置的时间优先，未配置时使用调用方传入的时间
+ * 2. 热点key延长TTL_HOT_FACTOR倍，减少热点key过期后的冷启动未命中
+ * 3. 窗口期内频繁更新的key缩短为TTL_UPDATE_FACTOR倍，减少旧数据的存活时间
+ * 4. 按比例随机增加最多TTL_JITTER_RATIO的时间，避免同一批数据同时过期
+ */
+@Component
+@ConfigurationProperties(prefix = "cache.ttl")
+public class TtlPolicy {
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * 各前缀的基础过期时间，按最长前缀匹配
+     */
+    private final Map<String, Duration> prefixes = new ConcurrentHashMap<>();
+
+    /**
+     * 最近被更新的key及窗口期内的更新次数
+     */
+    private final Cache<String, AtomicInteger> updates =
+            CacheUtil.newLRUCache(TTL_UPDATE_CAPACITY, TimeUnit.MINUTES.toMillis(TTL_UPDATE_WINDOW));
+
+    public Map<String, Duration> getPrefixes() {
+        return prefixes;
+    }
+
+    /**
+     * 运行时修改某个前缀的基础过期时间
+     */
+    public void register(String keyPrefix, Long time, TimeUnit unit) {
+        prefixes.put(keyPrefix, Duration.ofMillis(unit.toMillis(time)));
+    }
+
+    /**
+     * 记录一次数据更新，用于缩短频繁更新的key的过期时间
+     */
+    public void recordUpdate(String key) {
+        AtomicInteger count = updates.get(key, false);
+        if (count == null) {
+            updates.put(key, new AtomicInteger(1));
+        } else {
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * 计算key的过期时间
+     * @param time 未配置该前缀时使用的基础时间
+     * @return 过期时间(毫秒)
+     */
+    public long ttlMillis(String key, Long time, TimeUnit unit) {
+        long base = baseMillis(key, time, unit);
+        if (hotKeyDetector.isHot(key)) {
+            base *= TTL_HOT_FACTOR;
+        } else {
+            AtomicInteger count = updates.get(key, false);
+            if (count != null && count.get() >= TTL_UPDATE_THRESHOLD) {
+                base = (long) (base * TTL_UPDATE_FACTOR);
+            }
+        }
+        return jitter(base);
+    }
+
+    /**
+     * 计算空值的过期时间，只做随机化，不做延长
+     * @return 过期时间(毫秒)
+     */
+    public long nullTtlMillis() {
+        return jitter(TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+    }
+
+    private long baseMillis(String key, Long time, TimeUnit unit) {
+        Duration configured = null;
+        int matched = -1;
+        for (Map.Entry<String, Duration> entry : prefixes.entrySet()) {
+            String prefix = entry.getKey();
+            if (key.startsWith(prefix) && prefix.length() > matched) {
+                configured = entry.getValue();
+                matched = prefix.length();
+            }
+        }
+        return Math.max(1, configured != null ? configured.toMillis() : unit.toMillis(time));
+    }
+
+    private static long jitter(long millis) {
+        return millis + ThreadLocalRandom.current().nextLong((long) (millis * TTL_JITTER_RATIO) + 1);
+    }
+}
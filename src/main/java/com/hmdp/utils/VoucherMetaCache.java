@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import com.hmdp.dto.VoucherMeta;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherService;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀券元数据的本地缓存：所属店铺、库存快照、开始结束时间
+ * 启动预热时批量加载，新增秒杀券时通过redis频道通知各节点重新加载，未命中时查询一次数据库，
+ * 不存在的券在本地记录一段时间，避免反复查询
+ * 同时把时间窗口写入seckill:window:<id>，由skillvoucher.lua按redis的时间再次校验；
+ * 分片的券在每个分片写入seckill:window:{id:shard}，与分片库存在同一个slot，由分片脚本校验
+ */
+@Component
+public class VoucherMetaCache {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Lazy
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    private final Map<Long, VoucherMeta> metas = new ConcurrentHashMap<>();
+
+    private final Cache<Long, Boolean> missing = CacheUtil.newLRUCache(SECKILL_META_MISSING_SIZE, SECKILL_META_MISSING_TTL);
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> reload(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(SECKILL_VOUCHER_CHANNEL));
+    }
+
+    /**
+     * @return 秒杀券不存在时返回null
+     */
+    public VoucherMeta get(Long voucherId) {
+        VoucherMeta meta = metas.get(voucherId);
+        if (meta != null || missing.containsKey(voucherId)) {
+            return meta;
+        }
+        return load(voucherId);
+    }
+
+    /**
+     * 批量加载，用于启动预热
+     */
+    public void loadAll(Collection<SeckillVoucher> seckillVouchers) {
+        if (seckillVouchers.isEmpty()) {
+            return;
+        }
+        List<Long> ids = seckillVouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        Map<Long, Voucher> vouchers = voucherService.listByIds(ids).stream()
+                .collect(Collectors.toMap(Voucher::getId, Function.identity()));
+        List<VoucherMeta> loaded = new ArrayList<>(seckillVouchers.size());
+        for (SeckillVoucher seckillVoucher : seckillVouchers) {
+            VoucherMeta meta = toMeta(seckillVoucher, vouchers.get(seckillVoucher.getVoucherId()));
+            metas.put(meta.getVoucherId(), meta);
+            loaded.add(meta);
+        }
+        writeWindows(loaded);
+    }
+
+    /**
+     * 秒杀券变更后调用，事务提交后通知所有节点重新加载
+     */
+    public void publish(Long voucherId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    stringRedisTemplate.convertAndSend(SECKILL_VOUCHER_CHANNEL, voucherId.toString());
+                }
+            });
+        } else {
+            stringRedisTemplate.convertAndSend(SECKILL_VOUCHER_CHANNEL, voucherId.toString());
+        }
+    }
+
+    private void reload(Long voucherId) {
+        metas.remove(voucherId);
+        missing.remove(voucherId);
+        load(voucherId);
+    }
+
+    private VoucherMeta load(Long voucherId) {
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        if (seckillVoucher == null) {
+            missing.put(voucherId, Boolean.TRUE);
+            return null;
+        }
+        VoucherMeta meta = toMeta(seckillVoucher, voucherService.getById(voucherId));
+        metas.put(voucherId, meta);
+        writeWindows(Collections.singletonList(meta));
+        return meta;
+    }
+
+    private static VoucherMeta toMeta(SeckillVoucher seckillVoucher, Voucher voucher) {
+        return new VoucherMeta(seckillVoucher.getVoucherId(), voucher == null ? null : voucher.getShopId(),
+                seckillVoucher.getStock() == null ? 0 : seckillVoucher.getStock(),
+                seckillVoucher.getBeginTime(), seckillVoucher.getEndTime());
+    }
+
+    /**
+     * 写入lua脚本校验用的时间窗口，结束一天后过期
+     */
+    private void writeWindows(List<VoucherMeta> loaded) {
+        // 先查询各券的分片数，pipeline中不能读取结果
+        Map<String, VoucherMeta> keys = new LinkedHashMap<>();
+        for (VoucherMeta meta : loaded) {
+            if (meta.getBeginTime() == null || meta.getEndTime() == null) {
+                continue;
+            }
+            keys.put(SECKILL_WINDOW_KEY + meta.getVoucherId(), meta);
+            int shards = seckillStockShards.shardCount(meta.getVoucherId());
+            if (shards > 1) {
+                for (int shard = 0; shard < shards; shard++) {
+                    keys.put(SeckillStockShards.windowKey(meta.getVoucherId(), shard), meta);
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            keys.forEach((windowKey, meta) -> {
+                byte[] key = windowKey.getBytes(StandardCharsets.UTF_8);
+                connection.hSet(key, "begin".getBytes(StandardCharsets.UTF_8),
+                        String.valueOf(meta.getBeginMillis()).getBytes(StandardCharsets.UTF_8));
+                connection.hSet(key, "end".getBytes(StandardCharsets.UTF_8),
+                        String.valueOf(meta.getEndMillis()).getBytes(StandardCharsets.UTF_8));
+                connection.pExpireAt(key, meta.getEndMillis() + TimeUnit.DAYS.toMillis(1));
+            });
+            return null;
+        });
+    }
+}
@@ -0,0 +1,17 @@
+-- 布隆过滤器添加元素
+local key = KEYS[1]
+-- 重建标记，存在时说明有节点正在重建
+local rebuildingKey = KEYS[2]
+-- 重建期间添加的元素，重建完成后重放到新的位数组
+local journalKey = KEYS[3]
+local value = ARGV[1]
+local ttl = tonumber(ARGV[2])
+
+for i = 3, #ARGV do
+    redis.call('SETBIT', key, ARGV[i], 1)
+end
+if (redis.call('EXISTS', rebuildingKey) == 1) then
+    redis.call('SADD', journalKey, value)
+    redis.call('EXPIRE', journalKey, ttl)
+end
+return 1
@@ -0,0 +1,14 @@
+-- 续期或释放worker id，只处理自己持有的
+local key = KEYS[1]
+local owner = ARGV[1]
+local ttl = tonumber(ARGV[2])
+
+if (redis.call('GET', key) ~= owner) then
+    return 0
+end
+if (ttl <= 0) then
+    -- 释放
+    return redis.call('DEL', key)
+end
+-- 续期
+return redis.call('EXPIRE', key, ttl)
@@ -0,0 +1,51 @@
+-- 分片库存模式，在用户所属的分片上下单
+-- 获取key，库存、用户、位图分段、待发送订单、时间窗口使用相同的hash tag，集群模式下位于同一个slot
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local outboxKey = KEYS[3]
+local bitmapKey = KEYS[4]
+local windowKey = KEYS[5]
+-- 获取各个ID
+local userId = ARGV[1]
+local voucherId = ARGV[2]
+local orderId = ARGV[3]
+-- 用户在位图分段中的偏移量，以及购买用户使用set("0")还是位图("1")记录
+local offset = ARGV[4]
+local bitmap = ARGV[5]
+-- 下单时间(毫秒)
+local now = ARGV[6]
+
+-- 按redis的时间判断秒杀时间窗口，未写入时间窗口的券不判断
+local window = redis.call("HMGET", windowKey, "begin", "end")
+if (window[1] and window[2]) then
+    -- 脚本中读取时间后还有写操作，按命令复制(redis 5以下需要显式开启)
+    redis.replicate_commands()
+    local time = redis.call("TIME")
+    local current = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (current < tonumber(window[1])) then
+        return 4
+    end
+    if (current >= tonumber(window[2])) then
+        return 5
+    end
+end
+-- 判断用户是否重复下单，用户固定属于一个分片，只需要检查本分片
+if (redis.call("SISMEMBER", orderKey, userId) >= 1 or redis.call("GETBIT", bitmapKey, offset) == 1) then
+    return 2
+end
+-- 写入用户，本分片库存不足时也先占位，防止同一用户并发从其他分片下单
+if (bitmap == "1") then
+    redis.call("SETBIT", bitmapKey, offset, 1)
+else
+    redis.call("SADD", orderKey, userId)
+end
+-- 判断库存
+local stock = tonumber(redis.call("GET", stockKey))
+if (stock == nil or stock <= 0) then
+    return 3
+end
+-- 减少库存
+redis.call("INCRBY", stockKey, -1)
+-- 记录待发送的订单，由调用方写入订单消息队列后删除
+redis.call("HSET", outboxKey, orderId, userId .. ":" .. now)
+return 0
@@ -0,0 +1,35 @@
+-- 分片库存模式，用户所属的分片库存不足时，从其他分片扣减库存
+-- 获取key，库存、待发送订单、时间窗口使用相同的hash tag
+local stockKey = KEYS[1]
+local outboxKey = KEYS[2]
+local windowKey = KEYS[3]
+-- 获取各个ID
+local userId = ARGV[1]
+local orderId = ARGV[3]
+-- 下单时间(毫秒)
+local now = ARGV[6]
+
+-- 按redis的时间判断秒杀时间窗口，未写入时间窗口的券不判断
+local window = redis.call("HMGET", windowKey, "begin", "end")
+if (window[1] and window[2]) then
+    -- 脚本中读取时间后还有写操作，按命令复制(redis 5以下需要显式开启)
+    redis.replicate_commands()
+    local time = redis.call("TIME")
+    local current = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (current < tonumber(window[1])) then
+        return 4
+    end
+    if (current >= tonumber(window[2])) then
+        return 5
+    end
+end
+-- 判断库存
+local stock = tonumber(redis.call("GET", stockKey))
+if (stock == nil or stock <= 0) then
+    return 1
+end
+-- 减少库存
+redis.call("INCRBY", stockKey, -1)
+-- 记录待发送的订单，由调用方写入订单消息队列后删除
+redis.call("HSET", outboxKey, orderId, userId .. ":" .. now)
+return 0
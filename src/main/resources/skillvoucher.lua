@@ -1,23 +1,48 @@
 -- 获取key
 local stockKey = KEYS[1]
 local orderKey = KEYS[2]
+local streamKey = KEYS[3]
+local windowKey = KEYS[4]
+-- 用户所在的位图分段
+local bitmapKey = KEYS[5]
 -- 获取各个ID
 local userId = ARGV[1]
 local voucherId = ARGV[2]
 local orderId = ARGV[3]
+-- 用户在位图分段中的偏移量，以及购买用户使用set("0")还是位图("1")记录
+local offset = ARGV[4]
+local bitmap = ARGV[5]
 
+-- 按redis的时间判断秒杀时间窗口，未写入时间窗口的券不判断
+local window = redis.call("HMGET", windowKey, "begin", "end")
+if (window[1] and window[2]) then
+    -- 脚本中读取时间后还有写操作，按命令复制(redis 5以下需要显式开启)
+    redis.replicate_commands()
+    local time = redis.call("TIME")
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1])) then
+        return 4
+    end
+    if (now >= tonumber(window[2])) then
+        return 5
+    end
+end
 -- 判断库存
 if (tonumber(redis.call("GET", stockKey))) <= 0 then
     return 1;
 end
--- 判断用户是否重复下单
-if (redis.call("SISMEMBER", orderKey, userId) >= 1) then
+-- 判断用户是否重复下单，两种结构都检查，迁移期间或节点配置未同步时也不会重复下单
+if (redis.call("SISMEMBER", orderKey, userId) >= 1 or redis.call("GETBIT", bitmapKey, offset) == 1) then
     return 2
 end
 -- 减少库存
 redis.call("INCRBY", stockKey, -1)
 -- 写入用户
-redis.call("SADD", orderKey, userId)
+if (bitmap == "1") then
+    redis.call("SETBIT", bitmapKey, offset, 1)
+else
+    redis.call("SADD", orderKey, userId)
+end
 -- 发送消息到消息队列
-redis.call("XADD", "stream.orders", "*", 'userID', userId, "voucherId", voucherId, "id", orderId)
+redis.call("XADD", streamKey, "*", 'userId', userId, "voucherId", voucherId, "id", orderId)
 return 0
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.hmdp.dto;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachedResponseTest {
+
+    private final CachedResponse response = CachedResponse.of("{\"id\":1}".getBytes(StandardCharsets.UTF_8));
+
+    private static List<String> ifNoneMatch(String value) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.IF_NONE_MATCH, value);
+        return headers.getIfNoneMatch();
+    }
+
+    @Test
+    void matchesStrongAndWeakValidators() {
+        String etag = response.getEtag();
+        assertTrue(response.matches(ifNoneMatch(etag)));
+        assertTrue(response.matches(ifNoneMatch("W/" + etag)));
+        assertFalse(response.matches(ifNoneMatch("\"0000000000000000\"")));
+    }
+
+    @Test
+    void matchesAnyValidatorInList() {
+        assertTrue(response.matches(ifNoneMatch("\"0000000000000000\", W/" + response.getEtag())));
+        assertTrue(response.matches(ifNoneMatch("*")));
+        assertFalse(response.matches(Collections.emptyList()));
+    }
+
+    @Test
+    void storedEtagIsReadBack() {
+        CachedResponse decoded = CachedResponse.decode(response.encode());
+        assertEquals(response.getEtag(), decoded.getEtag());
+        assertArrayEquals(response.getBody(), decoded.getBody());
+        // 没有保存ETag的旧数据重新计算
+        CachedResponse legacy = CachedResponse.decode(response.getBody());
+        assertEquals(response.getEtag(), legacy.getEtag());
+        assertArrayEquals(response.getBody(), legacy.getBody());
+    }
+}
@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = BinaryCacheCodec.INSTANCE;
+
+    private static Shop newShop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setX(120.149192)
+                .setY(-30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(-1)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39, 123_456_789));
+    }
+
+    @Test
+    void roundTrip() {
+        Shop shop = newShop();
+        byte[] bytes = codec.encode(shop);
+        assertTrue(codec.supports(bytes));
+        Shop decoded = codec.decode(bytes, Shop.class);
+        assertEquals(shop, decoded);
+        // 空字段保持为null
+        assertNull(decoded.getImages());
+        assertNull(decoded.getUpdateTime());
+    }
+
+    @Test
+    void roundTripWithExpire() {
+        Shop shop = newShop();
+        LocalDateTime expireTime = LocalDateTime.of(2030, 1, 1, 0, 0, 0, 5_000_000);
+        RedisData redisData = codec.decodeWithExpire(codec.encodeWithExpire(shop, expireTime), Shop.class);
+        assertNotNull(redisData);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(shop, redisData.getData());
+    }
+
+    @Test
+    void encodedWithoutExpireHasNoExpireTime() {
+        RedisData redisData = codec.decodeWithExpire(codec.encode(newShop()), Shop.class);
+        assertNotNull(redisData);
+        assertNull(redisData.getExpireTime());
+    }
+
+    @Test
+    void schemaMismatchIsMiss() {
+        byte[] bytes = codec.encode(newShop());
+        // 按其他类型读取
+        assertNull(codec.decode(bytes, ShopType.class));
+        assertNull(codec.decodeWithExpire(bytes, ShopType.class));
+        // 实体字段变化后结构id不同
+        bytes[1] ^= 0x01;
+        assertNull(codec.decode(bytes, Shop.class));
+        assertNull(codec.decodeWithExpire(bytes, Shop.class));
+    }
+
+    @Test
+    void truncatedInputIsMiss() {
+        byte[] bytes = codec.encodeWithExpire(newShop(), LocalDateTime.now());
+        for (int length = 13; length < bytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertNull(codec.decode(truncated, Shop.class), "length " + length);
+            assertNull(codec.decodeWithExpire(truncated, Shop.class), "length " + length);
+        }
+    }
+
+    @Test
+    void trailingBytesAreMiss() {
+        byte[] bytes = codec.encode(newShop());
+        byte[] longer = Arrays.copyOf(bytes, bytes.length + 3);
+        assertNull(codec.decode(longer, Shop.class));
+    }
+
+    @Test
+    void corruptedBodyDoesNotThrow() {
+        byte[] bytes = codec.encode(newShop());
+        for (int i = 13; i < bytes.length; i++) {
+            byte[] corrupted = bytes.clone();
+            corrupted[i] = (byte) 0xFF;
+            // 损坏的数据可能恰好可以解码，但不能抛出异常
+            assertDoesNotThrow(() -> codec.decode(corrupted, Shop.class));
+            assertDoesNotThrow(() -> codec.decodeWithExpire(corrupted, Shop.class));
+        }
+    }
+
+    @Test
+    void unsupportedTypeFallsBackToJson() {
+        byte[] bytes = codec.encode(Collections.singletonMap("k", "v"));
+        assertFalse(codec.supports(bytes));
+        assertTrue(JsonCacheCodec.INSTANCE.supports(bytes));
+        assertSame(JsonCacheCodec.INSTANCE, CacheClient.codecFor(bytes));
+    }
+
+    @Test
+    void jsonDataIsReadThroughFallback() {
+        Shop shop = newShop().setCreateTime(null);
+        byte[] json = JsonCacheCodec.INSTANCE.encode(shop);
+        assertFalse(codec.supports(json));
+        assertEquals(shop, codec.decode(json, Shop.class));
+    }
+
+    @Test
+    void corruptedJsonIsMiss() {
+        byte[] json = "{\"id\":1,\"name\":".getBytes(StandardCharsets.UTF_8);
+        assertNull(JsonCacheCodec.INSTANCE.decode(json, Shop.class));
+        assertNull(JsonCacheCodec.INSTANCE.decodeWithExpire(json, Shop.class));
+    }
+}
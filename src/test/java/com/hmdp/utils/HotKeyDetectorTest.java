@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotKeyDetectorTest {
+
+    private final HotKeyDetector detector = new HotKeyDetector();
+
+    private void hit(String key, long times) {
+        for (long i = 0; i < times; i++) {
+            detector.record(key);
+        }
+    }
+
+    @Test
+    void shortBurstDoesNotMarkKey() {
+        // 1秒内达到阈值，但窗口平均QPS远低于阈值
+        hit("cache:shop:1", HOT_KEY_QPS_THRESHOLD);
+        detector.rotate();
+        assertFalse(detector.isHot("cache:shop:1"));
+    }
+
+    @Test
+    void sustainedLoadMarksKeyAndCoolsDownWithHysteresis() {
+        String key = "cache:shop:2";
+        long qps = HOT_KEY_QPS_THRESHOLD + 100;
+        for (int second = 0; second < HOT_KEY_WINDOW_SECONDS; second++) {
+            hit(key, qps);
+            detector.rotate();
+        }
+        assertTrue(detector.isHot(key));
+        assertEquals(qps, detector.hotKeys().get(key));
+
+        // 平均QPS低于阈值但高于取消标记的阈值时保持标记
+        long warm = (long) (HOT_KEY_QPS_THRESHOLD * (1 + HOT_KEY_COOL_RATIO) / 2);
+        for (int second = 0; second < HOT_KEY_WINDOW_SECONDS; second++) {
+            hit(key, warm);
+            detector.rotate();
+            assertTrue(detector.isHot(key), "second " + second);
+        }
+
+        // 访问停止后，平均QPS降到取消标记的阈值以下
+        for (int second = 0; second < HOT_KEY_WINDOW_SECONDS && detector.isHot(key); second++) {
+            detector.rotate();
+        }
+        assertFalse(detector.isHot(key));
+    }
+
+    @Test
+    void steadyLoadJustAboveThresholdMarksKey() {
+        String key = "cache:shop:4";
+        for (int second = 0; second < HOT_KEY_WINDOW_SECONDS; second++) {
+            hit(key, HOT_KEY_QPS_THRESHOLD + 1);
+            detector.rotate();
+        }
+        assertTrue(detector.isHot(key));
+    }
+
+    @Test
+    void estimateCoversWholeWindow() {
+        hit("cache:shop:3", 10);
+        detector.rotate();
+        hit("cache:shop:3", 5);
+        assertTrue(detector.estimate("cache:shop:3") >= 15);
+        for (int second = 0; second <= HOT_KEY_WINDOW_SECONDS; second++) {
+            detector.rotate();
+        }
+        assertEquals(0, detector.estimate("cache:shop:3"));
+    }
+}
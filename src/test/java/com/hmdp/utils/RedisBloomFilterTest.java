@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisBloomFilterTest {
+
+    private static RedisBloomFilter newFilter(long expectedInsertions, double fpp) {
+        // 只测试本地计算，不访问redis
+        return new RedisBloomFilter("bloom:test", expectedInsertions, fpp, null);
+    }
+
+    @Test
+    void sizesFollowExpectedInsertionsAndFpp() {
+        RedisBloomFilter filter = newFilter(1000, 0.01);
+        // m = -1000 * ln(0.01) / (ln2)^2 ≈ 9585，按64位对齐
+        assertEquals(9600, filter.getNumBits());
+        // k = m / n * ln2 ≈ 6.65
+        assertEquals(7, filter.getNumHashFunctions());
+    }
+
+    @Test
+    void rejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> newFilter(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> newFilter(1000, 0));
+        assertThrows(IllegalArgumentException.class, () -> newFilter(1000, 1));
+    }
+
+    @Test
+    void indexesAreStableAndInRange() {
+        RedisBloomFilter filter = newFilter(1000, 0.01);
+        long[] indexes = filter.indexes(42L);
+        assertEquals(filter.getNumHashFunctions(), indexes.length);
+        for (long index : indexes) {
+            assertTrue(index >= 0 && index < filter.getNumBits());
+        }
+        // 元素按字符串计算哈希，同步消息和journal中的字符串与原始id得到相同的位置
+        assertArrayEquals(indexes, filter.indexes("42"));
+    }
+
+    @Test
+    void noFalseNegativesAndBoundedFalsePositives() {
+        RedisBloomFilter filter = newFilter(10000, 0.01);
+        for (long id = 0; id < 10000; id++) {
+            filter.onMessage("add:" + id);
+        }
+        for (long id = 0; id < 10000; id++) {
+            assertTrue(filter.mightContainLocally(id));
+        }
+        int falsePositives = 0;
+        for (long id = 10000; id < 110000; id++) {
+            if (filter.mightContainLocally(id)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2000, "误判率过高: " + falsePositives);
+    }
+
+    @Test
+    void localNegativeIsRejectedWithoutRedis() {
+        // 没有redis连接，查询redis时会抛出异常
+        RedisBloomFilter filter = newFilter(1000, 0.01);
+        filter.onMessage("add:1");
+        assertTrue(filter.mightContain(1L));
+        assertFalse(filter.mightContain(2L));
+    }
+
+    @Test
+    void bitmapUsesRedisBitOrder() {
+        AtomicLongArray bits = new AtomicLongArray(2);
+        // redis中偏移量0为第一个字节的最高位
+        bits.set(0, 1L | 1L << 9);
+        bits.set(1, 1L << 63);
+        byte[] bitmap = RedisBloomFilter.toBitmap(bits);
+        assertEquals(16, bitmap.length);
+        assertEquals((byte) 0x80, bitmap[0]);
+        assertEquals((byte) 0x40, bitmap[1]);
+        assertEquals((byte) 0x01, bitmap[15]);
+    }
+
+    @Test
+    void bitmapRoundTrip() {
+        AtomicLongArray bits = new AtomicLongArray(4);
+        bits.set(0, 0x0123456789ABCDEFL);
+        bits.set(2, -1L);
+        bits.set(3, Long.MIN_VALUE);
+        AtomicLongArray restored = RedisBloomFilter.fromBitmap(RedisBloomFilter.toBitmap(bits), 4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(bits.get(i), restored.get(i));
+        }
+    }
+
+    @Test
+    void shortBitmapIsPaddedAndLongBitmapIsTruncated() {
+        AtomicLongArray restored = RedisBloomFilter.fromBitmap(new byte[]{(byte) 0x80}, 2);
+        assertEquals(1L, restored.get(0));
+        assertEquals(0L, restored.get(1));
+        byte[] longer = new byte[24];
+        longer[16] = (byte) 0xFF;
+        restored = RedisBloomFilter.fromBitmap(longer, 2);
+        assertEquals(0L, restored.get(0));
+        assertEquals(0L, restored.get(1));
+    }
+}
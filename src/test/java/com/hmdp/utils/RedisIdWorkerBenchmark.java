@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.config.IdWorkerProperties;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 号段模式、snowflake与逐次INCR的吞吐量对比，需要本地redis(与application.yaml相同的地址和密码)
+ * 运行main方法即可，不随单元测试执行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RedisIdWorkerBenchmark {
+
+    private LettuceConnectionFactory connectionFactory;
+    private RedisIdWorker redisIdWorker;
+    private SnowflakeIdGenerator snowflakeIdGenerator;
+
+    @Setup
+    public void setup() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration("127.0.0.1", 6379);
+        configuration.setPassword("redis");
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        stringRedisTemplate.afterPropertiesSet();
+        IdWorkerProperties properties = new IdWorkerProperties();
+        redisIdWorker = new RedisIdWorker();
+        ReflectUtil.setFieldValue(redisIdWorker, "stringRedisTemplate", stringRedisTemplate);
+        ReflectUtil.setFieldValue(redisIdWorker, "idWorkerProperties", properties);
+        snowflakeIdGenerator = new SnowflakeIdGenerator();
+        ReflectUtil.setFieldValue(snowflakeIdGenerator, "stringRedisTemplate", stringRedisTemplate);
+        ReflectUtil.setFieldValue(snowflakeIdGenerator, "idWorkerProperties", properties);
+        ReflectUtil.invoke(snowflakeIdGenerator, "lease");
+    }
+
+    @TearDown
+    public void tearDown() {
+        ReflectUtil.invoke(snowflakeIdGenerator, "release");
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public long perRequest() {
+        return redisIdWorker.nextIdPerRequest("benchmark");
+    }
+
+    @Benchmark
+    public long segment() {
+        return redisIdWorker.nextId("benchmark");
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return snowflakeIdGenerator.nextId();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RedisIdWorkerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
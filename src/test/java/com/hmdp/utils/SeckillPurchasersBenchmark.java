@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 已购买用户使用set与位图记录时的内存占用和skillvoucher.lua的执行耗时对比
+ * 预先写入users个已购买用户，结束时打印MEMORY USAGE，需要本地redis(与application.yaml相同的地址和密码)
+ * 运行main方法即可，不随单元测试执行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SeckillPurchasersBenchmark {
+
+    private static final Long VOUCHER_ID = -1L;
+    private static final String STREAM_KEY = "benchmark:stream";
+
+    @Param({SeckillPurchasers.SET, SeckillPurchasers.BITMAP})
+    public String encoding;
+
+    @Param({"1000000"})
+    public int users;
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate stringRedisTemplate;
+    private DefaultRedisScript<Long> script;
+    private AtomicLong nextUserId;
+
+    @Setup
+    public void setup() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration("127.0.0.1", 6379);
+        configuration.setPassword("redis");
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        stringRedisTemplate.afterPropertiesSet();
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("skillvoucher.lua"));
+        script.setResultType(Long.class);
+
+        clear();
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + VOUCHER_ID, String.valueOf(Integer.MAX_VALUE));
+        // 写入已购买用户
+        boolean bitmap = SeckillPurchasers.BITMAP.equals(encoding);
+        for (int from = 1; from <= users; from += 10000) {
+            int begin = from;
+            int end = Math.min(users, from + 9999);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (long userId = begin; userId <= end; userId++) {
+                    if (bitmap) {
+                        connection.setBit(bytes(SeckillPurchasers.bitmapKey(VOUCHER_ID, null, userId)),
+                                SeckillPurchasers.offset(userId), true);
+                    } else {
+                        connection.sAdd(bytes(SECKILL_ORDER_KEY + VOUCHER_ID), bytes(String.valueOf(userId)));
+                    }
+                }
+                return null;
+            });
+        }
+        nextUserId = new AtomicLong(users);
+        System.out.printf("%n%s: %d users, %d bytes%n", encoding, users, memoryUsage());
+    }
+
+    @TearDown
+    public void tearDown() {
+        clear();
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public Long order() {
+        long userId = nextUserId.incrementAndGet();
+        List<String> keys = Arrays.asList(SECKILL_STOCK_KEY + VOUCHER_ID, SECKILL_ORDER_KEY + VOUCHER_ID, STREAM_KEY,
+                SECKILL_WINDOW_KEY + VOUCHER_ID, SeckillPurchasers.bitmapKey(VOUCHER_ID, null, userId));
+        return stringRedisTemplate.execute(script, keys, String.valueOf(userId), VOUCHER_ID.toString(), "0",
+                String.valueOf(SeckillPurchasers.offset(userId)), SeckillPurchasers.BITMAP.equals(encoding) ? "1" : "0");
+    }
+
+    /**
+     * MEMORY USAGE，位图为所有分段之和
+     */
+    private long memoryUsage() {
+        if (SeckillPurchasers.SET.equals(encoding)) {
+            return memoryUsage(SECKILL_ORDER_KEY + VOUCHER_ID);
+        }
+        long total = 0;
+        for (long chunk = 0; chunk <= (long) users >>> SECKILL_BUYERS_CHUNK_BITS; chunk++) {
+            total += memoryUsage(SeckillPurchasers.bitmapKey(VOUCHER_ID, null, chunk << SECKILL_BUYERS_CHUNK_BITS));
+        }
+        return total;
+    }
+
+    private long memoryUsage(String key) {
+        Object usage = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.execute("MEMORY", bytes("USAGE"), bytes(key)));
+        return usage == null ? 0 : (Long) usage;
+    }
+
+    private void clear() {
+        Set<String> chunks = stringRedisTemplate.keys(SECKILL_BUYERS_KEY + VOUCHER_ID + ":*");
+        if (chunks != null && !chunks.isEmpty()) {
+            stringRedisTemplate.delete(chunks);
+        }
+        stringRedisTemplate.delete(Arrays.asList(SECKILL_STOCK_KEY + VOUCHER_ID, SECKILL_ORDER_KEY + VOUCHER_ID, STREAM_KEY));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SeckillPurchasersBenchmark.class.getSimpleName()).build()).run();
+    }
+}
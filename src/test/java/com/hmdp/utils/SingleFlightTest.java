@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    void concurrentCallsShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<String> leader = executor.submit(() -> singleFlight.execute("k", () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "v";
+            }));
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            List<Future<String>> followers = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                followers.add(executor.submit(() -> singleFlight.execute("k", () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                })));
+            }
+            // 等待其余线程进入等待状态后再放行
+            Thread.sleep(100);
+            release.countDown();
+            assertEquals("v", leader.get(1, TimeUnit.SECONDS));
+            for (Future<String> follower : followers) {
+                assertEquals("v", follower.get(1, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void exceptionIsPropagatedAndKeyIsReleased() {
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> singleFlight.execute("k", () -> {
+                    throw new IllegalStateException("db down");
+                }));
+        assertEquals("db down", e.getMessage());
+        // 失败后不缓存结果，下一次调用重新加载
+        assertEquals("v", singleFlight.execute("k", () -> "v"));
+    }
+
+    @Test
+    void sequentialCallsLoadAgain() {
+        AtomicInteger loads = new AtomicInteger();
+        singleFlight.execute("k", loads::incrementAndGet);
+        singleFlight.execute("k", loads::incrementAndGet);
+        assertEquals(2, loads.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.IdWorkerProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final long TIME_BEGIN = 1672531200;
+
+    /**
+     * TIME_BEGIN起第1000秒的第123毫秒
+     */
+    private static final long NOW = (TIME_BEGIN + 1000) * 1000 + 123;
+
+    private static final int WORKER_ID = 5;
+
+    private final IdWorkerProperties properties = new IdWorkerProperties();
+
+    /**
+     * 依次返回的时钟读数，最后一个读数一直保持
+     */
+    private final Deque<Long> ticks = new ArrayDeque<>();
+
+    private final SnowflakeIdGenerator generator = new SnowflakeIdGenerator() {
+        private long now = NOW;
+
+        @Override
+        long currentMillis() {
+            Long next = ticks.poll();
+            if (next != null) {
+                now = next;
+            }
+            return now;
+        }
+    };
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(generator, "idWorkerProperties", properties);
+        ReflectionTestUtils.setField(generator, "workerId", WORKER_ID);
+        ReflectionTestUtils.setField(generator, "leaseDeadline", Long.MAX_VALUE);
+    }
+
+    private static long seconds(long id) {
+        return id >>> 32;
+    }
+
+    private static long millisOfSecond(long id) {
+        return id >>> 22 & 0x3FF;
+    }
+
+    private static long workerId(long id) {
+        return id >>> 12 & 0x3FF;
+    }
+
+    private static long sequence(long id) {
+        return id & 0xFFF;
+    }
+
+    @Test
+    void bitLayout() {
+        long id = generator.nextId();
+        assertEquals(1000, seconds(id));
+        assertEquals(123, millisOfSecond(id));
+        assertEquals(WORKER_ID, workerId(id));
+        assertEquals(0, sequence(id));
+        // 同一毫秒内序列号递增
+        long next = generator.nextId();
+        assertEquals(id + 1, next);
+        assertEquals(1, sequence(next));
+    }
+
+    @Test
+    void idsIncreaseAcrossSeconds() {
+        ticks.add((TIME_BEGIN + 1000) * 1000 + 999);
+        long first = generator.nextId();
+        ticks.add((TIME_BEGIN + 1001) * 1000);
+        long second = generator.nextId();
+        assertTrue(second > first);
+        assertEquals(1001, seconds(second));
+        assertEquals(0, millisOfSecond(second));
+        assertEquals(0, sequence(second));
+    }
+
+    @Test
+    void exhaustedSequenceWaitsForNextMillisecond() {
+        long last = 0;
+        for (int i = 0; i < 4096; i++) {
+            last = generator.nextId();
+        }
+        assertEquals(4095, sequence(last));
+        ticks.add(NOW);
+        ticks.add(NOW + 1);
+        long next = generator.nextId();
+        assertTrue(next > last);
+        assertEquals(124, millisOfSecond(next));
+        assertEquals(0, sequence(next));
+    }
+
+    @Test
+    void shortRollbackWaitsForClock() {
+        long first = generator.nextId();
+        ticks.add(NOW - 5);
+        ticks.add(NOW - 3);
+        ticks.add(NOW);
+        long next = generator.nextId();
+        assertEquals(first + 1, next);
+    }
+
+    @Test
+    void longRollbackFails() {
+        generator.nextId();
+        ticks.add(NOW - properties.getMaxRollbackWait().toMillis() - 1);
+        assertThrows(IllegalStateException.class, generator::nextId);
+    }
+
+    @Test
+    void rollbackFailsImmediatelyWhenConfigured() {
+        properties.setClockRollback(IdWorkerProperties.ClockRollback.FAIL);
+        generator.nextId();
+        ticks.add(NOW - 1);
+        assertThrows(IllegalStateException.class, generator::nextId);
+    }
+
+    @Test
+    void expiredLeaseRejectsIds() {
+        ReflectionTestUtils.setField(generator, "leaseDeadline", 0L);
+        assertThrows(IllegalStateException.class, generator::nextId);
+        ReflectionTestUtils.setField(generator, "leaseDeadline", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(generator, "workerId", -1);
+        assertThrows(IllegalStateException.class, generator::nextId);
+    }
+}
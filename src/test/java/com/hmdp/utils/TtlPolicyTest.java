@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TtlPolicyTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private final HotKeyDetector hotKeyDetector = new HotKeyDetector();
+
+    private final TtlPolicy ttlPolicy = new TtlPolicy();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(ttlPolicy, "hotKeyDetector", hotKeyDetector);
+    }
+
+    private static void assertWithinJitter(long base, long actual) {
+        assertTrue(actual >= base && actual <= base + (long) (base * TTL_JITTER_RATIO),
+                "base " + base + ", actual " + actual);
+    }
+
+    @Test
+    void usesCallerTimeWhenPrefixNotConfigured() {
+        for (int i = 0; i < 100; i++) {
+            assertWithinJitter(30 * MINUTE, ttlPolicy.ttlMillis("cache:shop:1", 30L, TimeUnit.MINUTES));
+        }
+    }
+
+    @Test
+    void longestConfiguredPrefixWins() {
+        ttlPolicy.register("cache:", 5L, TimeUnit.MINUTES);
+        ttlPolicy.register("cache:shop:", 60L, TimeUnit.MINUTES);
+        assertWithinJitter(60 * MINUTE, ttlPolicy.ttlMillis("cache:shop:1", 30L, TimeUnit.MINUTES));
+        assertWithinJitter(5 * MINUTE, ttlPolicy.ttlMillis("cache:shopType", 30L, TimeUnit.MINUTES));
+    }
+
+    @Test
+    void jitterSpreadsExpireTimes() {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long ttl = ttlPolicy.ttlMillis("cache:shop:1", 30L, TimeUnit.MINUTES);
+            min = Math.min(min, ttl);
+            max = Math.max(max, ttl);
+        }
+        assertTrue(max > min);
+    }
+
+    @Test
+    void frequentlyUpdatedKeyGetsShorterTtl() {
+        String key = "cache:shop:2";
+        for (int i = 1; i < TTL_UPDATE_THRESHOLD; i++) {
+            ttlPolicy.recordUpdate(key);
+        }
+        assertWithinJitter(30 * MINUTE, ttlPolicy.ttlMillis(key, 30L, TimeUnit.MINUTES));
+        ttlPolicy.recordUpdate(key);
+        assertWithinJitter((long) (30 * MINUTE * TTL_UPDATE_FACTOR), ttlPolicy.ttlMillis(key, 30L, TimeUnit.MINUTES));
+    }
+
+    @Test
+    void hotKeyGetsLongerTtlEvenIfUpdatedFrequently() {
+        String key = "cache:shop:3";
+        for (int second = 0; second < HOT_KEY_WINDOW_SECONDS; second++) {
+            for (long i = 0; i < HOT_KEY_QPS_THRESHOLD + 100; i++) {
+                hotKeyDetector.record(key);
+            }
+            hotKeyDetector.rotate();
+        }
+        assertTrue(hotKeyDetector.isHot(key));
+        for (int i = 0; i < TTL_UPDATE_THRESHOLD; i++) {
+            ttlPolicy.recordUpdate(key);
+        }
+        assertWithinJitter(30 * MINUTE * TTL_HOT_FACTOR, ttlPolicy.ttlMillis(key, 30L, TimeUnit.MINUTES));
+    }
+
+    @Test
+    void nullTtlIsOnlyJittered() {
+        assertWithinJitter(TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), ttlPolicy.nullTtlMillis());
+    }
+
+    @Test
+    void ttlIsAtLeastOneMillisecond() {
+        assertTrue(ttlPolicy.ttlMillis("cache:shop:4", 0L, TimeUnit.MINUTES) >= 1);
+    }
+}